@@ -6,6 +6,7 @@ import android.app.NotificationManager;
 import android.os.Build;
 
 import com.musicplayer.elegant.data.MusicRepository;
+import com.musicplayer.elegant.util.AlbumArtLoader;
 
 /**
  * 应用程序类，负责初始化应用程序级别的组件
@@ -14,6 +15,7 @@ public class MusicPlayerApplication extends Application {
 
     public static final String CHANNEL_ID = "music_playback_channel";
     private MusicRepository musicRepository;
+    private AlbumArtLoader albumArtLoader;
 
     @Override
     public void onCreate() {
@@ -22,6 +24,10 @@ public class MusicPlayerApplication extends Application {
         // 初始化音乐仓库
         musicRepository = new MusicRepository(this);
         
+        // 初始化专辑封面加载器，曲库变化时清除过期的“无封面”记录
+        albumArtLoader = new AlbumArtLoader();
+        musicRepository.addLibraryChangeListener(albumArtLoader::onLibraryChanged);
+        
         // 创建通知渠道（Android 8.0及以上需要）
         createNotificationChannel();
     }
@@ -50,4 +56,11 @@ public class MusicPlayerApplication extends Application {
     public MusicRepository getMusicRepository() {
         return musicRepository;
     }
+
+    /**
+     * 获取专辑封面加载器
+     */
+    public AlbumArtLoader getAlbumArtLoader() {
+        return albumArtLoader;
+    }
 }
\ No newline at end of file
@@ -1,6 +1,9 @@
 package com.musicplayer.elegant.adapter;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,22 +11,70 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
+import com.musicplayer.elegant.MusicPlayerApplication;
 import com.musicplayer.elegant.R;
+import com.musicplayer.elegant.data.FavoritesStore;
+import com.musicplayer.elegant.data.SongTable;
 import com.musicplayer.elegant.model.Song;
+import com.musicplayer.elegant.util.AlbumArtLoader;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * 歌曲适配器，用于在RecyclerView中显示歌曲列表
+ * <p>
+ * 列表由{@link SongTable}生成时，差异计算和绑定都直接读取表的列，不为每次访问生成Song；
+ * 只有点击时才生成被点击的那一首。
  */
-public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder> {
+public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder>
+        implements ListPreloader.PreloadModelProvider<Long> {
+
+    // 歌曲卡片的视图类型，多个列表共享回收池时以此区分
+    public static final int VIEW_TYPE_CARD = 0;
+
+    // 沿滑动方向预加载封面的项数
+    private static final int PRELOAD_AHEAD = 6;
+
+    // 局部刷新标记：只更新收藏状态
+    private static final Object PAYLOAD_FAVORITE = new Object();
+    // 局部刷新标记：快速滑动停下后补上封面
+    private static final Object PAYLOAD_ART = new Object();
+
+    // 所有列表共用的差异计算线程
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor(runnable ->
+            new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "song-diff"));
 
     private final Context context;
-    private List<Song> songs;
+    // 绑定、预加载和快速滑动暂停共用的RequestManager，由宿主按其生命周期提供
+    private final RequestManager requestManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 当前显示的列表，以及它所属的歌曲表（不是由歌曲表生成时为null）
+    private List<Song> songs = Collections.emptyList();
+    private SongTable table;
+    // 每次提交新列表时递增，过期的差异结果不再应用
+    private int generation;
     private final OnSongClickListener listener;
+    private final FavoritesStore favoritesStore;
+    private final AlbumArtLoader albumArtLoader;
+    private final int albumArtSize;
+    // 列表的快速滑动状态，绑定到RecyclerView之后才有
+    private AlbumArtLoader.FlingGate flingGate;
 
     /**
      * 歌曲点击监听器接口
@@ -32,10 +83,17 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
         void onSongClick(Song song);
     }
 
-    public SongAdapter(Context context, List<Song> songs, OnSongClickListener listener) {
+    public SongAdapter(Context context, RequestManager requestManager, List<Song> songs,
+                       OnSongClickListener listener) {
         this.context = context;
-        this.songs = songs;
+        this.requestManager = requestManager;
         this.listener = listener;
+        MusicPlayerApplication application = (MusicPlayerApplication) context.getApplicationContext();
+        this.favoritesStore = application.getMusicRepository().getFavoritesStore();
+        this.albumArtLoader = application.getAlbumArtLoader();
+        this.albumArtSize = context.getResources().getDimensionPixelSize(R.dimen.album_art_card_size);
+        setHasStableIds(true);
+        updateSongs(songs);
     }
 
     @NonNull
@@ -47,8 +105,28 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull SongViewHolder holder, int position) {
-        Song song = songs.get(position);
-        holder.bind(song);
+        if (table != null) {
+            // 列表视图的位置就是表中的行号
+            holder.bind(this, table.getId(position), table.getTitle(position), table.getArtist(position),
+                    table.getAlbumId(position));
+        } else {
+            Song song = songs.get(position);
+            holder.bind(this, song.getId(), song.getTitle(), song.getArtist(), song.getAlbumId());
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SongViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        if (payloads.contains(PAYLOAD_FAVORITE)) {
+            holder.bindFavorite(this, getItemId(position));
+        }
+        if (payloads.contains(PAYLOAD_ART)) {
+            holder.bindArt(this, table != null ? table.getAlbumId(position) : songs.get(position).getAlbumId());
+        }
     }
 
     @Override
@@ -56,12 +134,99 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
         return songs.size();
     }
 
+    @Override
+    public int getItemViewType(int position) {
+        return VIEW_TYPE_CARD;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return table != null ? table.getId(position) : songs.get(position).getId();
+    }
+
     /**
-     * 更新歌曲列表
+     * 绑定到RecyclerView，并沿滑动方向预加载即将出现的封面
+     * <p>
+     * 预加载器在滑动方向反转时会取消之前的预加载；快速滑动时这个列表暂停发起封面请求，
+     * 停下后只刷新封面。
+     */
+    public void attachToRecyclerView(RecyclerView recyclerView) {
+        recyclerView.setAdapter(this);
+        int bucket = AlbumArtLoader.bucketFor(albumArtSize);
+        recyclerView.addOnScrollListener(new RecyclerViewPreloader<>(requestManager, this,
+                new FixedPreloadSizeProvider<>(bucket, bucket), PRELOAD_AHEAD));
+        flingGate = albumArtLoader.pauseDuringFastFling(recyclerView,
+                () -> notifyItemRangeChanged(0, getItemCount(), PAYLOAD_ART));
+    }
+
+    private boolean isArtPaused() {
+        return flingGate != null && flingGate.isPaused();
+    }
+
+    /**
+     * 预加载以专辑ID为模型，不需要生成Song
+     */
+    @NonNull
+    @Override
+    public List<Long> getPreloadItems(int position) {
+        if (position < 0 || position >= songs.size() || isArtPaused()) {
+            return Collections.emptyList();
+        }
+        long albumId = table != null ? table.getAlbumId(position) : songs.get(position).getAlbumId();
+        // 已知没有封面的专辑不需要预加载
+        if (albumArtLoader.isMissing(albumId)) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(albumId);
+    }
+
+    @Nullable
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Long albumId) {
+        return albumArtLoader.request(requestManager, albumId, albumArtSize);
+    }
+
+    /**
+     * 更新歌曲列表，在后台线程计算差异，完成后只分发最小的变化事件
      */
     public void updateSongs(List<Song> newSongs) {
-        this.songs = newSongs;
-        notifyDataSetChanged();
+        List<Song> next = newSongs != null ? newSongs : Collections.emptyList();
+        if (next == songs) {
+            return;
+        }
+        int runGeneration = ++generation;
+        List<Song> previous = songs;
+        if (previous.isEmpty() || next.isEmpty()) {
+            // 一边为空时不需要计算差异
+            setSongs(next);
+            if (!previous.isEmpty()) {
+                notifyItemRangeRemoved(0, previous.size());
+            } else if (!next.isEmpty()) {
+                notifyItemRangeInserted(0, next.size());
+            }
+            return;
+        }
+        DIFF_EXECUTOR.execute(() -> {
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new SongDiff(previous, next));
+            mainHandler.post(() -> {
+                if (runGeneration == generation) {
+                    setSongs(next);
+                    result.dispatchUpdatesTo(this);
+                }
+            });
+        });
+    }
+
+    private void setSongs(List<Song> newSongs) {
+        songs = newSongs;
+        table = SongTable.tableOf(newSongs);
+    }
+
+    /**
+     * 收藏状态变化后只刷新收藏标记，不重新加载封面
+     */
+    public void notifyFavoritesChanged() {
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_FAVORITE);
     }
 
     /**
@@ -71,40 +236,120 @@ public class SongAdapter extends RecyclerView.Adapter<SongAdapter.SongViewHolder
         return songs;
     }
 
+    private void onItemClick(int position) {
+        if (listener != null && position < songs.size()) {
+            listener.onSongClick(songs.get(position));
+        }
+    }
+
+    /**
+     * 以歌曲ID判断是否为同一项，以显示的字段判断内容是否变化
+     * <p>
+     * 两边都是歌曲表的列表视图时按行比较列，不生成Song。
+     */
+    private static final class SongDiff extends DiffUtil.Callback {
+        private final List<Song> oldSongs;
+        private final List<Song> newSongs;
+        private final SongTable oldTable;
+        private final SongTable newTable;
+
+        SongDiff(List<Song> oldSongs, List<Song> newSongs) {
+            this.oldSongs = oldSongs;
+            this.newSongs = newSongs;
+            this.oldTable = SongTable.tableOf(oldSongs);
+            this.newTable = SongTable.tableOf(newSongs);
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldSongs.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newSongs.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            long oldId = oldTable != null ? oldTable.getId(oldPosition) : oldSongs.get(oldPosition).getId();
+            long newId = newTable != null ? newTable.getId(newPosition) : newSongs.get(newPosition).getId();
+            return oldId == newId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            if (oldTable != null && newTable != null) {
+                if (oldTable == newTable && oldPosition == newPosition) {
+                    return true;
+                }
+                return oldTable.getDateModified(oldPosition) == newTable.getDateModified(newPosition)
+                        && Objects.equals(oldTable.getTitle(oldPosition), newTable.getTitle(newPosition))
+                        && Objects.equals(oldTable.getArtist(oldPosition), newTable.getArtist(newPosition))
+                        && oldTable.getAlbumId(oldPosition) == newTable.getAlbumId(newPosition);
+            }
+            Song oldItem = oldSongs.get(oldPosition);
+            Song newItem = newSongs.get(newPosition);
+            if (oldItem == newItem) {
+                return true;
+            }
+            return oldItem.getDateModified() == newItem.getDateModified()
+                    && Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                    && Objects.equals(oldItem.getArtist(), newItem.getArtist())
+                    && oldItem.getAlbumId() == newItem.getAlbumId();
+        }
+    }
+
     /**
      * 歌曲ViewHolder
+     * <p>
+     * 不持有适配器的引用，可以在多个列表的共享回收池中复用，
+     * 需要适配器时通过当前绑定的适配器获取。
      */
-    class SongViewHolder extends RecyclerView.ViewHolder {
+    public static class SongViewHolder extends RecyclerView.ViewHolder {
 
         private final ImageView albumArtImageView;
         private final TextView songTitleTextView;
         private final TextView artistNameTextView;
+        private final ImageView favoriteIndicator;
 
         public SongViewHolder(@NonNull View itemView) {
             super(itemView);
             albumArtImageView = itemView.findViewById(R.id.album_art);
             songTitleTextView = itemView.findViewById(R.id.song_title);
             artistNameTextView = itemView.findViewById(R.id.artist_name);
+            favoriteIndicator = itemView.findViewById(R.id.favorite_indicator);
 
             // 设置点击事件
             itemView.setOnClickListener(v -> {
-                int position = getAdapterPosition();
-                if (position != RecyclerView.NO_POSITION && listener != null) {
-                    listener.onSongClick(songs.get(position));
+                int position = getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && getBindingAdapter() instanceof SongAdapter) {
+                    ((SongAdapter) getBindingAdapter()).onItemClick(position);
                 }
             });
         }
 
-        public void bind(Song song) {
-            songTitleTextView.setText(song.getTitle());
-            artistNameTextView.setText(song.getArtist());
+        void bind(SongAdapter adapter, long songId, String title, String artist, long albumId) {
+            songTitleTextView.setText(title);
+            artistNameTextView.setText(artist);
+            bindFavorite(adapter, songId);
+            bindArt(adapter, albumId);
+        }
+
+        void bindArt(SongAdapter adapter, long albumId) {
+            if (adapter.isArtPaused()) {
+                // 快速滑动中不发起请求，停下后再补上
+                adapter.albumArtLoader.showDefault(adapter.requestManager, albumArtImageView);
+                return;
+            }
+            // 加载专辑封面，按卡片尺寸解码缩略图
+            adapter.albumArtLoader.load(adapter.requestManager, albumArtImageView, albumId, adapter.albumArtSize);
+        }
 
-            // 加载专辑封面
-            Glide.with(context)
-                    .load(song.getAlbumArtUri())
-                    .placeholder(R.drawable.default_album_art)
-                    .error(R.drawable.default_album_art)
-                    .into(albumArtImageView);
+        void bindFavorite(SongAdapter adapter, long songId) {
+            // 内存中的收藏集合，O(1)判断
+            favoriteIndicator.setVisibility(
+                    adapter.favoritesStore.isFavorite(songId) ? View.VISIBLE : View.GONE);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package com.musicplayer.elegant.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.musicplayer.elegant.model.Favorite;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 收藏数据访问对象
+ */
+@Dao
+public interface FavoriteDao {
+
+    @Query("SELECT * FROM favorites ORDER BY addedAt DESC")
+    List<Favorite> getAll();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insert(List<Favorite> favorites);
+
+    @Query("DELETE FROM favorites WHERE songId IN (:songIds)")
+    void deleteByIds(long[] songIds);
+
+    /**
+     * 在一个事务中写入一批收藏变化
+     */
+    @Transaction
+    default void applyChanges(List<Favorite> added, long[] removedIds) {
+        if (!added.isEmpty()) {
+            insert(added);
+        }
+        for (int from = 0; from < removedIds.length; from += SongDao.MAX_BATCH_SIZE) {
+            int to = Math.min(from + SongDao.MAX_BATCH_SIZE, removedIds.length);
+            deleteByIds(Arrays.copyOfRange(removedIds, from, to));
+        }
+    }
+}
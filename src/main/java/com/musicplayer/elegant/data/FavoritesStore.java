@@ -0,0 +1,181 @@
+package com.musicplayer.elegant.data;
+
+import com.musicplayer.elegant.model.Favorite;
+import com.musicplayer.elegant.util.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 收藏存储
+ * <p>
+ * 内存中保存一份收藏ID集合，列表绑定时可以O(1)判断是否收藏；
+ * 修改立即反映在内存中，数据库写入合并成批次在后台线程执行。
+ */
+public class FavoritesStore {
+
+    // 合并写入的等待时间
+    private static final long FLUSH_DELAY_MS = 500;
+
+    /**
+     * 不可变的收藏快照，读取时无需加锁
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new LongHashSet(), new long[0]);
+
+        final LongHashSet ids;
+        // 按收藏时间倒序排列
+        final long[] orderedIds;
+
+        Snapshot(LongHashSet ids, long[] orderedIds) {
+            this.ids = ids;
+            this.orderedIds = orderedIds;
+        }
+    }
+
+    private final FavoriteDao favoriteDao;
+    private final ScheduledExecutorService executor;
+    private final Runnable onChangedListener;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    // 尚未写入数据库的变化：歌曲ID -> 收藏时间，取消收藏时为null
+    private final Map<Long, Long> pendingChanges = new HashMap<>();
+    private ScheduledFuture<?> pendingFlush;
+
+    FavoritesStore(FavoriteDao favoriteDao, ScheduledExecutorService executor, Runnable onChangedListener) {
+        this.favoriteDao = favoriteDao;
+        this.executor = executor;
+        this.onChangedListener = onChangedListener;
+    }
+
+    /**
+     * 从数据库加载收藏，在后台线程调用
+     */
+    void load() {
+        List<Favorite> favorites = favoriteDao.getAll();
+        synchronized (this) {
+            LongHashSet ids = new LongHashSet(favorites.size());
+            long[] orderedIds = new long[favorites.size()];
+            int count = 0;
+            for (Favorite favorite : favorites) {
+                ids.add(favorite.getSongId());
+                orderedIds[count++] = favorite.getSongId();
+            }
+            snapshot = new Snapshot(ids, orderedIds);
+
+            // 加载完成前用户做过的修改需要重新应用
+            for (Map.Entry<Long, Long> change : pendingChanges.entrySet()) {
+                applyToSnapshot(change.getKey(), change.getValue() != null);
+            }
+        }
+        onChangedListener.run();
+    }
+
+    /**
+     * 是否已收藏
+     */
+    public boolean isFavorite(long songId) {
+        return snapshot.ids.contains(songId);
+    }
+
+    /**
+     * 获取收藏的歌曲ID，按收藏时间倒序排列
+     */
+    public long[] getFavoriteIds() {
+        return snapshot.orderedIds;
+    }
+
+    /**
+     * 切换收藏状态，返回切换后的状态
+     */
+    public boolean toggle(long songId) {
+        boolean favorite;
+        synchronized (this) {
+            favorite = !isFavorite(songId);
+            setFavoriteLocked(songId, favorite);
+        }
+        onChangedListener.run();
+        return favorite;
+    }
+
+    /**
+     * 设置收藏状态
+     */
+    public void setFavorite(long songId, boolean favorite) {
+        synchronized (this) {
+            if (isFavorite(songId) == favorite) {
+                return;
+            }
+            setFavoriteLocked(songId, favorite);
+        }
+        onChangedListener.run();
+    }
+
+    private void setFavoriteLocked(long songId, boolean favorite) {
+        applyToSnapshot(songId, favorite);
+        pendingChanges.put(songId, favorite ? System.currentTimeMillis() : null);
+        scheduleFlush();
+    }
+
+    private void applyToSnapshot(long songId, boolean favorite) {
+        Snapshot current = snapshot;
+        LongHashSet ids = new LongHashSet(current.ids);
+        long[] orderedIds;
+        if (favorite) {
+            if (!ids.add(songId)) {
+                return;
+            }
+            orderedIds = new long[current.orderedIds.length + 1];
+            orderedIds[0] = songId;
+            System.arraycopy(current.orderedIds, 0, orderedIds, 1, current.orderedIds.length);
+        } else {
+            if (!ids.remove(songId)) {
+                return;
+            }
+            orderedIds = new long[current.orderedIds.length - 1];
+            int count = 0;
+            for (long id : current.orderedIds) {
+                if (id != songId) {
+                    orderedIds[count++] = id;
+                }
+            }
+        }
+        snapshot = new Snapshot(ids, orderedIds);
+    }
+
+    private void scheduleFlush() {
+        if (pendingFlush == null) {
+            pendingFlush = executor.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 把累积的变化一次写入数据库
+     */
+    private void flush() {
+        List<Favorite> added = new ArrayList<>();
+        List<Long> removed = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Long, Long> change : pendingChanges.entrySet()) {
+                if (change.getValue() != null) {
+                    added.add(new Favorite(change.getKey(), change.getValue()));
+                } else {
+                    removed.add(change.getKey());
+                }
+            }
+            pendingChanges.clear();
+            pendingFlush = null;
+        }
+
+        long[] removedIds = new long[removed.size()];
+        for (int i = 0; i < removedIds.length; i++) {
+            removedIds[i] = removed.get(i);
+        }
+        favoriteDao.applyChanges(added, removedIds);
+    }
+}
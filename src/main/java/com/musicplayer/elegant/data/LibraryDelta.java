@@ -0,0 +1,49 @@
+package com.musicplayer.elegant.data;
+
+import com.musicplayer.elegant.model.Song;
+
+import java.util.List;
+
+/**
+ * 一次曲库变化的结构化差异，下游可以据此增量更新，而无需比对完整列表
+ */
+public class LibraryDelta {
+
+    private final List<Song> added;
+    private final List<Song> changed;
+    private final long[] removedIds;
+
+    LibraryDelta(List<Song> added, List<Song> changed, long[] removedIds) {
+        this.added = added;
+        this.changed = changed;
+        this.removedIds = removedIds;
+    }
+
+    /**
+     * 新增的歌曲
+     */
+    public List<Song> getAdded() {
+        return added;
+    }
+
+    /**
+     * 内容有变化的歌曲
+     */
+    public List<Song> getChanged() {
+        return changed;
+    }
+
+    /**
+     * 已删除歌曲的ID
+     */
+    public long[] getRemovedIds() {
+        return removedIds;
+    }
+
+    /**
+     * 是否没有任何变化
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removedIds.length == 0;
+    }
+}
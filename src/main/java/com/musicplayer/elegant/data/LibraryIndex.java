@@ -0,0 +1,462 @@
+package com.musicplayer.elegant.data;
+
+import com.musicplayer.elegant.model.Song;
+import com.musicplayer.elegant.util.LongHashSet;
+import com.musicplayer.elegant.util.LongIntMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntToLongFunction;
+
+/**
+ * 专辑和歌手的聚合索引
+ * <p>
+ * 专辑保存按曲目号排序的歌曲ID数组，歌手保存按专辑名排序的专辑ID数组，
+ * 两者都预先算好歌曲数和总时长，界面可以直接读取而不必每次重新分组。
+ * 直接从{@link SongTable}的列生成：分组和排序都只处理行号数组，不为每首歌创建Song。
+ * 索引不可变，曲库变化时只重建受影响的专辑和歌手，其余对象原样复用。
+ */
+public final class LibraryIndex {
+
+    static final LibraryIndex EMPTY = new LibraryIndex(new HashMap<>(), new HashMap<>());
+
+    private static final Comparator<String> NAME_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+    private static final Comparator<Album> ALBUM_ORDER = Comparator.comparing(Album::getTitle, NAME_ORDER);
+    private static final Comparator<Artist> ARTIST_ORDER = Comparator.comparing(Artist::getName, NAME_ORDER);
+
+    // 小于该长度的区间直接插入排序
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * 专辑
+     */
+    public static final class Album {
+        private final long id;
+        private final String title;
+        private final String artist;
+        private final long artistId;
+        private final long[] songIds;
+        private final long totalDurationMs;
+
+        Album(long id, String title, String artist, long artistId, long[] songIds, long totalDurationMs) {
+            this.id = id;
+            this.title = title;
+            this.artist = artist;
+            this.artistId = artistId;
+            this.songIds = songIds;
+            this.totalDurationMs = totalDurationMs;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * 专辑第一首歌的歌手
+         */
+        public String getArtist() {
+            return artist;
+        }
+
+        public long getArtistId() {
+            return artistId;
+        }
+
+        /**
+         * 按曲目号排序的歌曲ID，调用方不能修改
+         */
+        public long[] getSongIds() {
+            return songIds;
+        }
+
+        public int getTrackCount() {
+            return songIds.length;
+        }
+
+        public long getTotalDurationMs() {
+            return totalDurationMs;
+        }
+    }
+
+    /**
+     * 歌手
+     */
+    public static final class Artist {
+        private final long id;
+        private final String name;
+        private final long[] albumIds;
+        private final int trackCount;
+        private final long totalDurationMs;
+
+        Artist(long id, String name, long[] albumIds, int trackCount, long totalDurationMs) {
+            this.id = id;
+            this.name = name;
+            this.albumIds = albumIds;
+            this.trackCount = trackCount;
+            this.totalDurationMs = totalDurationMs;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 该歌手有歌曲的专辑ID，按专辑名排序，调用方不能修改
+         */
+        public long[] getAlbumIds() {
+            return albumIds;
+        }
+
+        public int getAlbumCount() {
+            return albumIds.length;
+        }
+
+        public int getTrackCount() {
+            return trackCount;
+        }
+
+        public long getTotalDurationMs() {
+            return totalDurationMs;
+        }
+    }
+
+    /**
+     * 从歌曲表生成索引
+     */
+    static LibraryIndex build(SongTable table) {
+        RowGroups albumGroups = new RowGroups(table.size(), table::getAlbumId);
+        Map<Long, Album> albums = new HashMap<>(albumGroups.count * 2);
+        for (int group = 0; group < albumGroups.count; group++) {
+            long albumId = albumGroups.keys[group];
+            albums.put(albumId, buildAlbum(table, albumId, albumGroups.rows,
+                    albumGroups.starts[group], albumGroups.starts[group + 1]));
+        }
+        RowGroups artistGroups = new RowGroups(table.size(), table::getArtistId);
+        Map<Long, Artist> artists = new HashMap<>(artistGroups.count * 2);
+        for (int group = 0; group < artistGroups.count; group++) {
+            long artistId = artistGroups.keys[group];
+            artists.put(artistId, buildArtist(table, artistId, artistGroups.rows,
+                    artistGroups.starts[group], artistGroups.starts[group + 1]));
+        }
+        return new LibraryIndex(albums, artists);
+    }
+
+    private final Map<Long, Album> albums;
+    private final Map<Long, Artist> artists;
+    private final List<Album> sortedAlbums;
+    private final List<Artist> sortedArtists;
+
+    private LibraryIndex(Map<Long, Album> albums, Map<Long, Artist> artists) {
+        this.albums = albums;
+        this.artists = artists;
+        List<Album> albumList = new ArrayList<>(albums.values());
+        albumList.sort(ALBUM_ORDER);
+        sortedAlbums = Collections.unmodifiableList(albumList);
+        List<Artist> artistList = new ArrayList<>(artists.values());
+        artistList.sort(ARTIST_ORDER);
+        sortedArtists = Collections.unmodifiableList(artistList);
+    }
+
+    /**
+     * 按专辑名排序的所有专辑
+     */
+    public List<Album> getAlbums() {
+        return sortedAlbums;
+    }
+
+    /**
+     * 按歌手名排序的所有歌手
+     */
+    public List<Artist> getArtists() {
+        return sortedArtists;
+    }
+
+    /**
+     * 根据ID获取专辑，不存在时返回null
+     */
+    public Album getAlbum(long albumId) {
+        return albums.get(albumId);
+    }
+
+    /**
+     * 根据ID获取歌手，不存在时返回null
+     */
+    public Artist getArtist(long artistId) {
+        return artists.get(artistId);
+    }
+
+    /**
+     * 应用一次曲库变化，只重建涉及的专辑和歌手
+     *
+     * @param oldSongs 变化前的ID索引，用于找到被删除或修改的歌曲原来所属的专辑和歌手
+     * @param newSongs 变化后的ID索引
+     */
+    LibraryIndex apply(LibraryDelta delta, SongIdIndex oldSongs, SongIdIndex newSongs) {
+        SongTable oldTable = oldSongs.getTable();
+        SongTable newTable = newSongs.getTable();
+        LongHashSet affectedAlbums = new LongHashSet();
+        LongHashSet affectedArtists = new LongHashSet();
+        LongHashSet upsertedIds = new LongHashSet();
+        for (long id : delta.getRemovedIds()) {
+            markOld(oldTable, oldTable.rowOf(id), affectedAlbums, affectedArtists);
+        }
+        for (Song song : delta.getChanged()) {
+            // 修改后可能换了专辑或歌手，新旧两边都要重建
+            markOld(oldTable, oldTable.rowOf(song.getId()), affectedAlbums, affectedArtists);
+            affectedAlbums.add(song.getAlbumId());
+            affectedArtists.add(song.getArtistId());
+            upsertedIds.add(song.getId());
+        }
+        for (Song song : delta.getAdded()) {
+            affectedAlbums.add(song.getAlbumId());
+            affectedArtists.add(song.getArtistId());
+            upsertedIds.add(song.getId());
+        }
+        long[] upserted = upsertedIds.toArray();
+
+        // 受影响专辑的成员：原有的歌曲中仍然属于该专辑的行，加上新增和修改后属于该专辑的行
+        Map<Long, RowBuffer> rowsByAlbum = new HashMap<>();
+        for (long albumId : affectedAlbums.toArray()) {
+            RowBuffer members = new RowBuffer();
+            Album old = albums.get(albumId);
+            if (old != null) {
+                for (long songId : old.songIds) {
+                    int row = newTable.rowOf(songId);
+                    if (row >= 0 && newTable.getAlbumId(row) == albumId && !upsertedIds.contains(songId)) {
+                        members.add(row);
+                    }
+                }
+            }
+            rowsByAlbum.put(albumId, members);
+        }
+        for (long songId : upserted) {
+            int row = newTable.rowOf(songId);
+            RowBuffer members = row >= 0 ? rowsByAlbum.get(newTable.getAlbumId(row)) : null;
+            if (members != null) {
+                members.add(row);
+            }
+        }
+
+        Map<Long, Album> newAlbums = new HashMap<>(albums);
+        for (Map.Entry<Long, RowBuffer> entry : rowsByAlbum.entrySet()) {
+            RowBuffer members = entry.getValue();
+            if (members.size == 0) {
+                newAlbums.remove(entry.getKey());
+            } else {
+                newAlbums.put(entry.getKey(), buildAlbum(newTable, entry.getKey(), members.rows, 0, members.size));
+            }
+        }
+
+        // 受影响的歌手从其原有专辑和新歌曲所在的专辑中重新收集歌曲
+        Map<Long, Artist> newArtists = new HashMap<>(artists);
+        RowBuffer artistRows = new RowBuffer();
+        for (long artistId : affectedArtists.toArray()) {
+            LongHashSet candidateAlbums = new LongHashSet();
+            Artist old = artists.get(artistId);
+            if (old != null) {
+                for (long albumId : old.albumIds) {
+                    candidateAlbums.add(albumId);
+                }
+            }
+            for (long songId : upserted) {
+                int row = newTable.rowOf(songId);
+                if (row >= 0 && newTable.getArtistId(row) == artistId) {
+                    candidateAlbums.add(newTable.getAlbumId(row));
+                }
+            }
+
+            artistRows.size = 0;
+            for (long albumId : candidateAlbums.toArray()) {
+                Album album = newAlbums.get(albumId);
+                if (album == null) {
+                    continue;
+                }
+                for (long songId : album.songIds) {
+                    int row = newTable.rowOf(songId);
+                    if (row >= 0 && newTable.getArtistId(row) == artistId) {
+                        artistRows.add(row);
+                    }
+                }
+            }
+            if (artistRows.size == 0) {
+                newArtists.remove(artistId);
+            } else {
+                newArtists.put(artistId, buildArtist(newTable, artistId, artistRows.rows, 0, artistRows.size));
+            }
+        }
+        return new LibraryIndex(newAlbums, newArtists);
+    }
+
+    private static void markOld(SongTable table, int row, LongHashSet affectedAlbums, LongHashSet affectedArtists) {
+        if (row >= 0) {
+            affectedAlbums.add(table.getAlbumId(row));
+            affectedArtists.add(table.getArtistId(row));
+        }
+    }
+
+    /**
+     * 由rows[from, to)中的行生成专辑，会就地把这些行按曲目号排序
+     */
+    private static Album buildAlbum(SongTable table, long albumId, int[] rows, int from, int to) {
+        // 专辑内按曲目号排序，曲目号相同（通常是缺失）时按标题排序
+        sortRows(rows, from, to, (a, b) -> {
+            int byTrack = Integer.compare(table.getTrackNumber(a), table.getTrackNumber(b));
+            return byTrack != 0 ? byTrack : NAME_ORDER.compare(table.getTitle(a), table.getTitle(b));
+        });
+        long[] songIds = new long[to - from];
+        long totalDurationMs = 0;
+        for (int i = from; i < to; i++) {
+            songIds[i - from] = table.getId(rows[i]);
+            totalDurationMs += table.getDuration(rows[i]);
+        }
+        int first = rows[from];
+        return new Album(albumId, table.getAlbum(first), table.getArtist(first), table.getArtistId(first),
+                songIds, totalDurationMs);
+    }
+
+    /**
+     * 由rows[from, to)中的行生成歌手，不改动这些行
+     */
+    private static Artist buildArtist(SongTable table, long artistId, int[] rows, int from, int to) {
+        // 同一专辑只记一次，取第一次出现的行代表该专辑，再按专辑名排序
+        LongHashSet seenAlbums = new LongHashSet();
+        int[] albumRows = new int[to - from];
+        int albumCount = 0;
+        long totalDurationMs = 0;
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            if (seenAlbums.add(table.getAlbumId(row))) {
+                albumRows[albumCount++] = row;
+            }
+            totalDurationMs += table.getDuration(row);
+        }
+        sortRows(albumRows, 0, albumCount, (a, b) -> NAME_ORDER.compare(table.getAlbum(a), table.getAlbum(b)));
+        long[] albumIds = new long[albumCount];
+        for (int i = 0; i < albumCount; i++) {
+            albumIds[i] = table.getAlbumId(albumRows[i]);
+        }
+        return new Artist(artistId, table.getArtist(rows[from]), albumIds, to - from, totalDurationMs);
+    }
+
+    /**
+     * 对rows[from, to)做稳定排序
+     */
+    private static void sortRows(int[] rows, int from, int to, RowComparator order) {
+        if (to - from > 1) {
+            mergeSort(rows, from, to, new int[(to - from + 1) / 2], order);
+        }
+    }
+
+    private static void mergeSort(int[] rows, int from, int to, int[] buffer, RowComparator order) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i;
+                while (j > from && order.compare(rows[j - 1], row) > 0) {
+                    rows[j] = rows[j - 1];
+                    j--;
+                }
+                rows[j] = row;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(rows, from, mid, buffer, order);
+        mergeSort(rows, mid, to, buffer, order);
+        if (order.compare(rows[mid - 1], rows[mid]) <= 0) {
+            return;
+        }
+        // 左半部分移到缓冲区，右半部分留在原处，依次归并回去
+        int leftLength = mid - from;
+        System.arraycopy(rows, from, buffer, 0, leftLength);
+        int left = 0;
+        int right = mid;
+        int out = from;
+        while (left < leftLength && right < to) {
+            rows[out++] = order.compare(rows[right], buffer[left]) < 0 ? rows[right++] : buffer[left++];
+        }
+        System.arraycopy(buffer, left, rows, out, leftLength - left);
+    }
+
+    /**
+     * 比较两行的先后
+     */
+    private interface RowComparator {
+        int compare(int rowA, int rowB);
+    }
+
+    /**
+     * 按某一列的值把行分组，同一组的行号在rows中连续存放，组内保持原来的行序
+     */
+    private static final class RowGroups {
+        final int count;
+        final long[] keys;
+        final int[] starts;
+        final int[] rows;
+
+        RowGroups(int size, IntToLongFunction column) {
+            // 第一遍给每一行编组并统计组的大小
+            LongIntMap groupOfKey = new LongIntMap();
+            int[] groupOfRow = new int[size];
+            long[] groupKeys = new long[16];
+            int[] groupSizes = new int[16];
+            int groupCount = 0;
+            for (int row = 0; row < size; row++) {
+                long key = column.applyAsLong(row);
+                int group = groupOfKey.get(key);
+                if (group < 0) {
+                    group = groupCount++;
+                    groupOfKey.put(key, group);
+                    if (group == groupKeys.length) {
+                        groupKeys = Arrays.copyOf(groupKeys, group * 2);
+                        groupSizes = Arrays.copyOf(groupSizes, group * 2);
+                    }
+                    groupKeys[group] = key;
+                }
+                groupOfRow[row] = group;
+                groupSizes[group]++;
+            }
+
+            // 第二遍按组的起始位置放入行号
+            count = groupCount;
+            keys = groupKeys;
+            starts = new int[groupCount + 1];
+            for (int group = 0; group < groupCount; group++) {
+                starts[group + 1] = starts[group] + groupSizes[group];
+            }
+            rows = new int[size];
+            int[] next = Arrays.copyOf(starts, groupCount);
+            for (int row = 0; row < size; row++) {
+                rows[next[groupOfRow[row]]++] = row;
+            }
+        }
+    }
+
+    /**
+     * 可增长的行号数组
+     */
+    private static final class RowBuffer {
+        int[] rows = new int[16];
+        int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.musicplayer.elegant.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.MediaStore;
+
+import com.musicplayer.elegant.model.Song;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MediaStore扫描器，在调用线程中遍历音乐文件并分批回调结果
+ * <p>
+ * 第一批数据量很小，保证列表可以尽快显示；之后每批大小翻倍，
+ * 使得大曲库下的回调次数和列表拷贝总量都保持在O(n)级别。
+ * 每一批对应一次带LIMIT/OFFSET的查询，只投影需要的列。
+ */
+public class MediaStoreScanner {
+
+    // 第一批的歌曲数量
+    private static final int FIRST_PAGE_SIZE = 100;
+    // 单批歌曲数量上限
+    private static final int MAX_PAGE_SIZE = 5000;
+    // 按ID查询时每条语句包含的ID数量
+    private static final int ID_BATCH_SIZE = 500;
+
+    private static final String MUSIC_SELECTION = MediaStore.Audio.Media.IS_MUSIC + "!= 0";
+    private static final Uri ALBUM_ART_BASE_URI = Uri.parse("content://media/external/audio/albumart");
+
+    // 只查询Song需要的列，避免通过binder传输所有列
+    private static final String[] SONG_PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.ALBUM_ID,
+            MediaStore.Audio.Media.ARTIST_ID,
+            MediaStore.Audio.Media.SIZE,
+            MediaStore.Audio.Media.DATE_ADDED,
+            MediaStore.Audio.Media.DATE_MODIFIED,
+            MediaStore.Audio.Media.TRACK
+    };
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_TITLE = 1;
+    private static final int COLUMN_ARTIST = 2;
+    private static final int COLUMN_ALBUM = 3;
+    private static final int COLUMN_DATA = 4;
+    private static final int COLUMN_DURATION = 5;
+    private static final int COLUMN_ALBUM_ID = 6;
+    private static final int COLUMN_ARTIST_ID = 7;
+    private static final int COLUMN_SIZE = 8;
+    private static final int COLUMN_DATE_ADDED = 9;
+    private static final int COLUMN_DATE_MODIFIED = 10;
+    private static final int COLUMN_TRACK = 11;
+
+    /**
+     * 扫描回调
+     */
+    public interface Callback {
+        /**
+         * 读取到一批歌曲
+         */
+        void onPage(List<Song> page);
+    }
+
+    /**
+     * 按ID升序排列的歌曲版本表
+     */
+    public static class Versions {
+        public final long[] ids;
+        public final long[] dateModified;
+        public final int size;
+
+        Versions(long[] ids, long[] dateModified, int size) {
+            this.ids = ids;
+            this.dateModified = dateModified;
+            this.size = size;
+        }
+    }
+
+    private final Context context;
+
+    public MediaStoreScanner(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * 扫描所有音乐文件，必须在后台线程调用
+     */
+    public void scan(Callback callback) {
+        // 加上_ID保证分页之间的顺序稳定
+        queryPaged(MUSIC_SELECTION,
+                MediaStore.Audio.Media.TITLE + " ASC, " + MediaStore.Audio.Media._ID + " ASC", callback);
+    }
+
+    /**
+     * 只读取指定ID的歌曲，用于增量同步
+     */
+    public void scanByIds(long[] ids, Callback callback) {
+        for (int from = 0; from < ids.length; from += ID_BATCH_SIZE) {
+            int to = Math.min(from + ID_BATCH_SIZE, ids.length);
+            StringBuilder selection = new StringBuilder(MUSIC_SELECTION)
+                    .append(" AND ")
+                    .append(MediaStore.Audio.Media._ID)
+                    .append(" IN (");
+            for (int i = from; i < to; i++) {
+                if (i > from) {
+                    selection.append(',');
+                }
+                selection.append(ids[i]);
+            }
+            selection.append(')');
+            query(selection.toString(), null, callback);
+        }
+    }
+
+    /**
+     * 只读取ID和修改时间，开销远小于完整扫描
+     */
+    public Versions scanVersions() {
+        ContentResolver contentResolver = context.getContentResolver();
+        String[] projection = {MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATE_MODIFIED};
+
+        Cursor cursor = contentResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                projection, MUSIC_SELECTION, null, MediaStore.Audio.Media._ID + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            int count = cursor.getCount();
+            long[] ids = new long[count];
+            long[] dateModified = new long[count];
+            int size = 0;
+            while (cursor.moveToNext() && size < count) {
+                ids[size] = cursor.getLong(0);
+                dateModified[size] = cursor.getLong(1);
+                size++;
+            }
+            return new Versions(ids, dateModified, size);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 执行一次查询，所有结果作为一批回调
+     */
+    private void query(String selection, String sortOrder, Callback callback) {
+        Cursor cursor = context.getContentResolver().query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, SONG_PROJECTION, selection, null, sortOrder);
+        if (cursor == null) {
+            return;
+        }
+
+        try {
+            List<Song> songs = readSongs(cursor);
+            if (!songs.isEmpty()) {
+                callback.onPage(songs);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 按LIMIT/OFFSET分页查询，每页一个游标，单个CursorWindow不会因为曲库过大而溢出
+     */
+    private void queryPaged(String selection, String sortOrder, Callback callback) {
+        int offset = 0;
+        int pageSize = FIRST_PAGE_SIZE;
+
+        while (true) {
+            Cursor cursor = queryPage(selection, sortOrder, pageSize, offset);
+            if (cursor == null) {
+                break;
+            }
+
+            List<Song> page;
+            try {
+                page = readSongs(cursor);
+            } finally {
+                cursor.close();
+            }
+
+            if (!page.isEmpty()) {
+                callback.onPage(page);
+            }
+            offset += page.size();
+            if (page.size() < pageSize) {
+                break;
+            }
+            pageSize = Math.min(pageSize * 2, MAX_PAGE_SIZE);
+        }
+    }
+
+    private Cursor queryPage(String selection, String sortOrder, int limit, int offset) {
+        ContentResolver contentResolver = context.getContentResolver();
+        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+            return contentResolver.query(uri, SONG_PROJECTION, queryArgs, null);
+        }
+
+        // 旧版本系统只能把LIMIT拼接在排序语句之后
+        return contentResolver.query(uri, SONG_PROJECTION, selection, null,
+                sortOrder + " LIMIT " + limit + " OFFSET " + offset);
+    }
+
+    /**
+     * 读取游标中的全部歌曲，列索引与SONG_PROJECTION的顺序一致，无需逐行查找
+     */
+    private List<Song> readSongs(Cursor cursor) {
+        List<Song> songs = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            // 封面URI由专辑ID推算，不随歌曲保存
+            Song song = new Song(
+                    cursor.getLong(COLUMN_ID),
+                    cursor.getString(COLUMN_TITLE),
+                    cursor.getString(COLUMN_ARTIST),
+                    cursor.getString(COLUMN_ALBUM),
+                    cursor.getString(COLUMN_DATA),
+                    cursor.getLong(COLUMN_DURATION),
+                    cursor.getLong(COLUMN_ALBUM_ID),
+                    cursor.getLong(COLUMN_ARTIST_ID),
+                    cursor.getLong(COLUMN_SIZE),
+                    cursor.getLong(COLUMN_DATE_ADDED)
+            );
+            song.setDateModified(cursor.getLong(COLUMN_DATE_MODIFIED));
+            song.setTrackNumber(cursor.getInt(COLUMN_TRACK));
+            songs.add(song);
+        }
+        return songs;
+    }
+
+    /**
+     * 获取专辑封面的URI，同一专辑的歌曲共用同一个URI
+     */
+    public static Uri getAlbumArtUri(long albumId) {
+        return ContentUris.withAppendedId(ALBUM_ART_BASE_URI, albumId);
+    }
+}
@@ -0,0 +1,47 @@
+package com.musicplayer.elegant.data;
+
+import android.content.Context;
+
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+
+import com.musicplayer.elegant.model.Favorite;
+import com.musicplayer.elegant.model.PlayEvent;
+import com.musicplayer.elegant.model.PlayStat;
+import com.musicplayer.elegant.model.Song;
+
+/**
+ * 应用数据库，缓存歌曲目录以便冷启动时直接读取，并保存收藏和播放记录
+ */
+@Database(entities = {Song.class, Favorite.class, PlayEvent.class, PlayStat.class},
+        version = 1, exportSchema = false)
+public abstract class MusicDatabase extends RoomDatabase {
+
+    private static final String DATABASE_NAME = "music.db";
+    private static volatile MusicDatabase instance;
+
+    public abstract SongDao songDao();
+
+    public abstract FavoriteDao favoriteDao();
+
+    public abstract PlayHistoryDao playHistoryDao();
+
+    /**
+     * 获取数据库单例
+     */
+    public static MusicDatabase getInstance(Context context) {
+        if (instance == null) {
+            synchronized (MusicDatabase.class) {
+                if (instance == null) {
+                    instance = Room.databaseBuilder(
+                            context.getApplicationContext(),
+                            MusicDatabase.class,
+                            DATABASE_NAME
+                    ).build();
+                }
+            }
+        }
+        return instance;
+    }
+}
@@ -1,97 +1,374 @@
 package com.musicplayer.elegant.data;
 
-import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
 import com.musicplayer.elegant.model.Song;
+import com.musicplayer.elegant.util.LongHashSet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
- * 音乐数据仓库，负责从设备获取音乐文件
+ * 音乐数据仓库，负责从设备获取音乐文件并缓存到数据库
  */
 public class MusicRepository {
 
+    // 冷启动时先发布的歌曲数量
+    private static final int FIRST_PAGE_SIZE = 100;
+    // 媒体库变化通知的合并窗口，批量复制文件时只触发一次同步
+    private static final long CHANGE_DEBOUNCE_MS = 1000;
+    // 通知持续不断时（长时间的批量复制或媒体扫描），距第一次通知最多等待这么久就同步一次
+    private static final long CHANGE_MAX_DELAY_MS = 10_000;
+    // 与数据库查询一致的标题排序
+    private static final Comparator<String> TITLE_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+    // 最近添加列表的歌曲数量
+    private static final int RECENT_SONG_COUNT = 20;
+
     private final Context context;
+    private final MediaStoreScanner scanner;
+    private final SongDao songDao;
+    private final SongSearchIndex searchIndex = new SongSearchIndex();
+    // 与allSongs同步替换的ID索引
+    private volatile SongIdIndex songIdIndex = SongTable.EMPTY.idIndex();
+    // 专辑和歌手索引，在扫描线程中生成和增量更新，整体替换
+    private volatile LibraryIndex libraryIndex = LibraryIndex.EMPTY;
+    // 专用的扫描线程，避免阻塞应用启动
+    private final ScheduledExecutorService scanExecutor = Executors.newSingleThreadScheduledExecutor(runnable ->
+            new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "music-scan"));
     private final MutableLiveData<List<Song>> allSongs = new MutableLiveData<>();
     private final MutableLiveData<List<Song>> recentSongs = new MutableLiveData<>();
     private final MutableLiveData<List<Song>> favoriteSongs = new MutableLiveData<>();
+    private final List<OnLibraryChangeListener> libraryChangeListeners = new CopyOnWriteArrayList<>();
+    private final FavoritesStore favoritesStore;
+    private final PlayHistoryRecorder playHistoryRecorder;
+    private final MutableLiveData<List<Song>> recentlyPlayedSongs = new MutableLiveData<>();
+    private final MutableLiveData<List<Song>> mostPlayedSongs = new MutableLiveData<>();
+    // 播放记录器给出的最新ID列表，歌曲列表变化后需要重新解析
+    private volatile long[] recentlyPlayedIds = new long[0];
+    private volatile long[] mostPlayedIds = new long[0];
+
+    // 当前的歌曲表，只在扫描线程中访问
+    private SongTable currentTable = SongTable.EMPTY;
+    // 等待执行的同步任务，以及这一批通知中第一次通知的时间
+    private ScheduledFuture<?> pendingSync;
+    private long firstPendingChangeMs;
+    // 曲库首次加载完成后要在主线程执行的任务，以自身作为锁
+    private final List<Runnable> loadedCallbacks = new ArrayList<>();
+    private boolean libraryLoaded;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 曲库变化监听器，在扫描线程中回调
+     */
+    public interface OnLibraryChangeListener {
+        void onLibraryChanged(LibraryDelta delta);
+    }
 
     public MusicRepository(Context context) {
-        this.context = context;
-        loadSongs();
+        this.context = context.getApplicationContext();
+        this.scanner = new MediaStoreScanner(this.context);
+        MusicDatabase database = MusicDatabase.getInstance(this.context);
+        this.songDao = database.songDao();
+        this.favoritesStore = new FavoritesStore(database.favoriteDao(), scanExecutor, this::publishFavorites);
+        this.playHistoryRecorder = new PlayHistoryRecorder(database.playHistoryDao(), (recent, most) -> {
+            recentlyPlayedIds = recent;
+            mostPlayedIds = most;
+            publishPlayHistory();
+        });
+        scanExecutor.execute(favoritesStore::load);
+        scanExecutor.execute(this::loadSongs);
+        registerMediaObserver();
+    }
+
+    /**
+     * 监听媒体库变化，短时间内的多次通知合并为一次增量同步
+     */
+    private void registerMediaObserver() {
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                scheduleSync();
+            }
+        };
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer);
+    }
+
+    /**
+     * 每次通知都把同步推迟到安静CHANGE_DEBOUNCE_MS之后，但不会推迟到第一次通知后CHANGE_MAX_DELAY_MS之外
+     */
+    private synchronized void scheduleSync() {
+        long now = SystemClock.uptimeMillis();
+        if (pendingSync == null) {
+            firstPendingChangeMs = now;
+        } else {
+            pendingSync.cancel(false);
+        }
+        long delay = Math.min(CHANGE_DEBOUNCE_MS, firstPendingChangeMs + CHANGE_MAX_DELAY_MS - now);
+        pendingSync = scanExecutor.schedule(this::runPendingSync, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+    }
+
+    private void runPendingSync() {
+        synchronized (this) {
+            // 之后的通知开始新的一批
+            pendingSync = null;
+        }
+        syncWithMediaStore();
     }
 
     /**
-     * 从设备加载所有音乐文件
+     * 加载歌曲目录，在扫描线程中执行
+     * <p>
+     * 数据库中有缓存时直接发布缓存，再与MediaStore做增量同步；
+     * 首次启动时才完整扫描MediaStore。
      */
     private void loadSongs() {
-        List<Song> songs = new ArrayList<>();
-        ContentResolver contentResolver = context.getContentResolver();
-
-        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        String selection = MediaStore.Audio.Media.IS_MUSIC + "!= 0";
-        String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
-
-        Cursor cursor = contentResolver.query(uri, null, selection, null, sortOrder);
-
-        if (cursor != null && cursor.getCount() > 0) {
-            while (cursor.moveToNext()) {
-                long id = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID));
-                String title = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE));
-                String artist = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST));
-                String album = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM));
-                String path = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA));
-                long duration = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION));
-                long albumId = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID));
-                long artistId = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST_ID));
-                long size = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.SIZE));
-                long dateAdded = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED));
-
-                // 获取专辑封面URI
-                Uri albumArtUri = ContentUris.withAppendedId(
-                        Uri.parse("content://media/external/audio/albumart"),
-                        albumId
-                );
-
-                Song song = new Song(
-                        id, title, artist, album, path, duration,
-                        albumArtUri.toString(), albumId, artistId, size, dateAdded
-                );
-
-                songs.add(song);
+        List<Song> firstPage = songDao.getFirst(FIRST_PAGE_SIZE);
+        if (firstPage.isEmpty()) {
+            scanAllSongs();
+            return;
+        }
+
+        // 先发布第一页，界面无需等待整个目录读取完毕
+        postAllSongs(new SongTable.Builder(firstPage.size()).addAll(firstPage).build());
+        // 逐行读入列存储的歌曲表，不为每首歌创建Song对象
+        SongTable table;
+        try (Cursor cursor = songDao.queryAll()) {
+            table = new SongTable.Builder(cursor.getCount()).addAll(cursor).build();
+        }
+        libraryIndex = LibraryIndex.build(table);
+        publishSongs(table);
+        searchIndex.rebuild(table);
+
+        syncWithMediaStore();
+    }
+
+    /**
+     * 完整扫描MediaStore并写入数据库
+     */
+    private void scanAllSongs() {
+        SongTable.Builder tableBuilder = new SongTable.Builder(FIRST_PAGE_SIZE);
+
+        // 每读取一批就发布一次，首屏显示时间不再依赖曲库大小。
+        // 每批写入数据库后即可丢弃，内存中只保留列存储的歌曲表，专辑和歌手索引在扫描结束后从表中生成
+        scanner.scan(page -> {
+            songDao.applyChanges(page, new long[0]);
+            tableBuilder.addAll(page);
+            searchIndex.addAll(page);
+            postAllSongs(tableBuilder.build());
+        });
+
+        SongTable table = tableBuilder.build();
+        libraryIndex = LibraryIndex.build(table);
+        publishSongs(table);
+    }
+
+    /**
+     * 按ID和修改时间比对MediaStore与数据库，只读取和写入有变化的歌曲
+     */
+    private void syncWithMediaStore() {
+        MediaStoreScanner.Versions media = scanner.scanVersions();
+        if (media == null) {
+            return;
+        }
+        List<SongDao.SongVersion> stored = songDao.getVersions();
+
+        // 两边都按ID升序排列，一次归并即可得到差异
+        long[] added = new long[media.size];
+        long[] changed = new long[media.size];
+        long[] removed = new long[stored.size()];
+        int addedCount = 0;
+        int changedCount = 0;
+        int removedCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < media.size || j < stored.size()) {
+            if (j >= stored.size() || (i < media.size && media.ids[i] < stored.get(j).id)) {
+                // 新增的歌曲
+                added[addedCount++] = media.ids[i++];
+            } else if (i >= media.size || media.ids[i] > stored.get(j).id) {
+                // 已删除的歌曲
+                removed[removedCount++] = stored.get(j++).id;
+            } else {
+                // 修改时间不同的歌曲
+                if (media.dateModified[i] != stored.get(j).dateModified) {
+                    changed[changedCount++] = media.ids[i];
+                }
+                i++;
+                j++;
             }
-            cursor.close();
         }
 
-        allSongs.postValue(songs);
-        
-        // 最近添加的歌曲（按添加日期排序，取前20首）
-        List<Song> recent = new ArrayList<>(songs);
-        recent.sort((s1, s2) -> Long.compare(s2.getDateAdded(), s1.getDateAdded()));
-        if (recent.size() > 20) {
-            recent = recent.subList(0, 20);
+        if (addedCount == 0 && changedCount == 0 && removedCount == 0) {
+            return;
+        }
+
+        List<Song> addedSongs = new ArrayList<>(addedCount);
+        List<Song> changedSongs = new ArrayList<>(changedCount);
+        scanner.scanByIds(Arrays.copyOf(added, addedCount), addedSongs::addAll);
+        scanner.scanByIds(Arrays.copyOf(changed, changedCount), changedSongs::addAll);
+        LibraryDelta delta = new LibraryDelta(addedSongs, changedSongs, Arrays.copyOf(removed, removedCount));
+        if (delta.isEmpty()) {
+            return;
+        }
+        applyDelta(delta);
+    }
+
+    /**
+     * 把一次变化写入数据库、索引和内存列表，并通知监听器
+     */
+    private void applyDelta(LibraryDelta delta) {
+        List<Song> upserts = new ArrayList<>(delta.getAdded().size() + delta.getChanged().size());
+        upserts.addAll(delta.getAdded());
+        upserts.addAll(delta.getChanged());
+        long[] removedIds = delta.getRemovedIds();
+
+        songDao.applyChanges(upserts, removedIds);
+        searchIndex.apply(upserts, removedIds);
+
+        // 在内存中按行合并变化，避免重新读取整个目录：未受影响的行保持原有顺序，
+        // 新增和修改的歌曲按标题排序后归并进去
+        LongHashSet affected = new LongHashSet(upserts.size() + removedIds.length);
+        for (Song song : upserts) {
+            affected.add(song.getId());
+        }
+        for (long id : removedIds) {
+            affected.add(id);
+        }
+        List<Song> sortedUpserts = new ArrayList<>(upserts);
+        sortedUpserts.sort((a, b) -> TITLE_ORDER.compare(a.getTitle(), b.getTitle()));
+        SongTable old = currentTable;
+        SongTable.Builder builder = new SongTable.Builder(old.size() + upserts.size());
+        int next = 0;
+        for (int row = 0; row < old.size(); row++) {
+            if (affected.contains(old.getId(row))) {
+                continue;
+            }
+            while (next < sortedUpserts.size()
+                    && TITLE_ORDER.compare(sortedUpserts.get(next).getTitle(), old.getTitle(row)) < 0) {
+                builder.add(sortedUpserts.get(next++));
+            }
+            builder.add(old, row);
+        }
+        while (next < sortedUpserts.size()) {
+            builder.add(sortedUpserts.get(next++));
+        }
+        SongIdIndex oldIndex = songIdIndex;
+        publishSongs(builder.build());
+        // 只重建涉及的专辑和歌手
+        libraryIndex = libraryIndex.apply(delta, oldIndex, songIdIndex);
+
+        for (OnLibraryChangeListener listener : libraryChangeListeners) {
+            listener.onLibraryChanged(delta);
+        }
+    }
+
+    /**
+     * 发布歌曲表的列表视图，并同时替换ID索引
+     */
+    private void postAllSongs(SongTable table) {
+        songIdIndex = table.idIndex();
+        allSongs.postValue(table.asList());
+    }
+
+    /**
+     * 发布完整的歌曲表以及由它派生的列表
+     */
+    private void publishSongs(SongTable table) {
+        currentTable = table;
+        postAllSongs(table);
+
+        // 最近添加的歌曲（按添加日期排序，取前20首），直接在添加日期列上选出
+        int[] newest = table.newestRows(RECENT_SONG_COUNT);
+        List<Song> recent = new ArrayList<>(newest.length);
+        for (int row : newest) {
+            recent.add(table.get(row));
         }
         recentSongs.postValue(recent);
         
-        // 模拟收藏的歌曲（实际应用中应该从数据库读取）
-        List<Song> favorites = new ArrayList<>();
-        if (!songs.isEmpty()) {
-            // 简单示例：将前5首歌曲设为收藏
-            int count = Math.min(5, songs.size());
-            for (int i = 0; i < count; i++) {
-                favorites.add(songs.get(i));
+        publishFavorites();
+        publishPlayHistory();
+        onLibraryLoaded();
+    }
+
+    /**
+     * 曲库可以按ID查询后执行任务，任务在主线程中运行
+     * <p>
+     * 有数据库缓存时只需读取缓存，不需要等待扫描MediaStore。
+     */
+    public void runWhenLoaded(Runnable callback) {
+        synchronized (loadedCallbacks) {
+            if (!libraryLoaded) {
+                loadedCallbacks.add(callback);
+                return;
+            }
+        }
+        mainHandler.post(callback);
+    }
+
+    private void onLibraryLoaded() {
+        List<Runnable> callbacks;
+        synchronized (loadedCallbacks) {
+            if (libraryLoaded) {
+                return;
             }
+            libraryLoaded = true;
+            callbacks = new ArrayList<>(loadedCallbacks);
+            loadedCallbacks.clear();
         }
-        favoriteSongs.postValue(favorites);
+        for (Runnable callback : callbacks) {
+            mainHandler.post(callback);
+        }
+    }
+
+    /**
+     * 按当前的歌曲列表解析并发布收藏列表
+     */
+    private void publishFavorites() {
+        favoriteSongs.postValue(loadFavoriteSongs());
+    }
+
+    /**
+     * 添加曲库变化监听器
+     */
+    public void addLibraryChangeListener(OnLibraryChangeListener listener) {
+        libraryChangeListeners.add(listener);
+    }
+
+    /**
+     * 移除曲库变化监听器
+     */
+    public void removeLibraryChangeListener(OnLibraryChangeListener listener) {
+        libraryChangeListeners.remove(listener);
+    }
+
+    /**
+     * 按当前的歌曲列表解析并发布最近播放和最常播放
+     */
+    private void publishPlayHistory() {
+        recentlyPlayedSongs.postValue(getSongsByIds(recentlyPlayedIds));
+        mostPlayedSongs.postValue(getSongsByIds(mostPlayedIds));
     }
 
     /**
@@ -108,6 +385,27 @@ public class MusicRepository {
         return recentSongs;
     }
 
+    /**
+     * 获取最近播放的歌曲
+     */
+    public LiveData<List<Song>> getRecentlyPlayedSongs() {
+        return recentlyPlayedSongs;
+    }
+
+    /**
+     * 获取播放次数最多的歌曲
+     */
+    public LiveData<List<Song>> getMostPlayedSongs() {
+        return mostPlayedSongs;
+    }
+
+    /**
+     * 获取播放记录器
+     */
+    public PlayHistoryRecorder getPlayHistoryRecorder() {
+        return playHistoryRecorder;
+    }
+
     /**
      * 获取收藏的歌曲
      */
@@ -115,39 +413,78 @@ public class MusicRepository {
         return favoriteSongs;
     }
 
+    /**
+     * 直接按收藏存储的最新快照解析收藏的歌曲，可以在任意线程调用
+     * <p>
+     * 不依赖getFavoriteSongs的LiveData，没有活跃观察者时也能拿到最新的结果。
+     */
+    public List<Song> loadFavoriteSongs() {
+        return getSongsByIds(favoritesStore.getFavoriteIds());
+    }
+
+    /**
+     * 获取收藏存储
+     */
+    public FavoritesStore getFavoritesStore() {
+        return favoritesStore;
+    }
+
+    /**
+     * 是否已收藏
+     */
+    public boolean isFavorite(long songId) {
+        return favoritesStore.isFavorite(songId);
+    }
+
+    /**
+     * 切换收藏状态，返回切换后的状态
+     */
+    public boolean toggleFavorite(long songId) {
+        return favoritesStore.toggle(songId);
+    }
+
     /**
      * 根据ID获取歌曲
      */
     public Song getSongById(long id) {
-        List<Song> songs = allSongs.getValue();
-        if (songs != null) {
-            for (Song song : songs) {
-                if (song.getId() == id) {
-                    return song;
-                }
-            }
-        }
-        return null;
+        return songIdIndex.get(id);
     }
 
     /**
-     * 搜索歌曲
+     * 获取当前的歌曲表，与ID索引同步替换，可以在任意线程读取
+     * <p>
+     * 不经过LiveData，没有观察者时也是最新的。
      */
-    public List<Song> searchSongs(String query) {
-        List<Song> result = new ArrayList<>();
-        List<Song> songs = allSongs.getValue();
-        
-        if (songs != null && !query.isEmpty()) {
-            String lowerQuery = query.toLowerCase();
-            for (Song song : songs) {
-                if (song.getTitle().toLowerCase().contains(lowerQuery) ||
-                        song.getArtist().toLowerCase().contains(lowerQuery) ||
-                        song.getAlbum().toLowerCase().contains(lowerQuery)) {
-                    result.add(song);
-                }
+    public SongTable getSongTable() {
+        return songIdIndex.getTable();
+    }
+
+    /**
+     * 获取专辑和歌手索引，曲库变化后整体替换，可以在任意线程读取
+     */
+    public LibraryIndex getLibraryIndex() {
+        return libraryIndex;
+    }
+
+    /**
+     * 根据ID批量获取歌曲，结果保持ID的顺序，已不存在的歌曲会被跳过
+     */
+    public List<Song> getSongsByIds(long[] ids) {
+        SongIdIndex index = songIdIndex;
+        List<Song> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            Song song = index.get(id);
+            if (song != null) {
+                result.add(song);
             }
         }
-        
         return result;
     }
+
+    /**
+     * 搜索歌曲，支持拼音和首字母，标题匹配优先
+     */
+    public List<Song> searchSongs(String query) {
+        return getSongsByIds(searchIndex.search(query));
+    }
 }
\ No newline at end of file
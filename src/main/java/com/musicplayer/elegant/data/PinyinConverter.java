@@ -0,0 +1,80 @@
+package com.musicplayer.elegant.data;
+
+import android.icu.text.Transliterator;
+import android.os.Build;
+
+/**
+ * 汉字转拼音工具，基于系统自带的ICU音译器（Android 10及以上）
+ * <p>
+ * 非线程安全，调用方需要自行同步。
+ */
+class PinyinConverter {
+
+    private final Transliterator transliterator;
+
+    PinyinConverter() {
+        Transliterator instance = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            try {
+                instance = Transliterator.getInstance("Han-Latin; Latin-ASCII; Lower");
+            } catch (IllegalArgumentException e) {
+                // 部分精简系统没有打包音译规则，此时不支持拼音搜索
+                instance = null;
+            }
+        }
+        transliterator = instance;
+    }
+
+    /**
+     * 转换为以空格分隔的拼音音节，不包含汉字或不支持时返回null
+     */
+    String toSyllables(String text) {
+        if (transliterator == null || text == null || !containsHan(text)) {
+            return null;
+        }
+        return transliterator.transliterate(text);
+    }
+
+    /**
+     * 拼接全部音节，例如“周杰伦”得到“zhoujielun”
+     */
+    static String fullPinyin(String syllables) {
+        StringBuilder builder = new StringBuilder(syllables.length());
+        for (int i = 0; i < syllables.length(); i++) {
+            char c = syllables.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 取每个音节的首字母，例如“周杰伦”得到“zjl”
+     */
+    static String initials(String syllables) {
+        StringBuilder builder = new StringBuilder();
+        boolean wordStart = true;
+        for (int i = 0; i < syllables.length(); i++) {
+            char c = syllables.charAt(i);
+            if (Character.isWhitespace(c)) {
+                wordStart = true;
+            } else if (wordStart) {
+                builder.append(c);
+                wordStart = false;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean containsHan(String text) {
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN) {
+                return true;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return false;
+    }
+}
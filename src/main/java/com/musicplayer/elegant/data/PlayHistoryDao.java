@@ -0,0 +1,43 @@
+package com.musicplayer.elegant.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.musicplayer.elegant.model.PlayEvent;
+import com.musicplayer.elegant.model.PlayStat;
+
+import java.util.List;
+
+/**
+ * 播放记录数据访问对象
+ */
+@Dao
+public interface PlayHistoryDao {
+
+    @Insert
+    void insertEvents(List<PlayEvent> events);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertStats(List<PlayStat> stats);
+
+    @Query("SELECT * FROM play_stats WHERE songId IN (:songIds)")
+    List<PlayStat> getStats(long[] songIds);
+
+    @Query("SELECT songId FROM play_stats WHERE playCount > 0 ORDER BY lastPlayedAt DESC LIMIT :limit")
+    long[] getRecentlyPlayedIds(int limit);
+
+    @Query("SELECT songId FROM play_stats WHERE playCount > 0 ORDER BY playCount DESC, lastPlayedAt DESC LIMIT :limit")
+    long[] getMostPlayedIds(int limit);
+
+    /**
+     * 在一个事务中写入一批播放记录和合并后的统计
+     */
+    @Transaction
+    default void insertBatch(List<PlayEvent> events, List<PlayStat> stats) {
+        insertEvents(events);
+        upsertStats(stats);
+    }
+}
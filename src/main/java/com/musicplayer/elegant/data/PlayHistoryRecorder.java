@@ -0,0 +1,180 @@
+package com.musicplayer.elegant.data;
+
+import android.os.Process;
+
+import com.musicplayer.elegant.model.PlayEvent;
+import com.musicplayer.elegant.model.PlayStat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 播放记录器
+ * <p>
+ * 播放事件先写入内存中的环形缓冲区，攒够一批或超时后一次写入数据库，
+ * 同时合并到按歌曲聚合的播放统计表中。最近播放和最常播放直接读取
+ * 统计表上的索引，不需要扫描原始记录。
+ * 所有工作都在专用线程中执行，调用方（播放线程）只负责投递事件。
+ */
+public class PlayHistoryRecorder {
+
+    // 环形缓冲区容量，写入跟不上时丢弃最旧的记录
+    private static final int BUFFER_CAPACITY = 256;
+    // 缓冲区达到该数量时立即写入
+    private static final int FLUSH_THRESHOLD = 32;
+    // 缓冲区中的记录最多等待的时间
+    private static final long FLUSH_DELAY_MS = 10_000;
+    // 收听时间短于该值视为跳过，不计入播放次数
+    private static final long MIN_COUNTED_MS = 10_000;
+    // 最近播放和最常播放列表的长度
+    private static final int LIST_SIZE = 20;
+
+    /**
+     * 列表变化监听器，在记录线程中回调
+     */
+    interface OnListsChangedListener {
+        void onListsChanged(long[] recentlyPlayedIds, long[] mostPlayedIds);
+    }
+
+    private final PlayHistoryDao playHistoryDao;
+    private final OnListsChangedListener listener;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+            new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "play-history"));
+
+    // 环形缓冲区，只在记录线程中访问
+    private final long[] bufferSongIds = new long[BUFFER_CAPACITY];
+    private final long[] bufferStartedAt = new long[BUFFER_CAPACITY];
+    private final long[] bufferListenedMs = new long[BUFFER_CAPACITY];
+    private int bufferHead;
+    private int bufferCount;
+    private ScheduledFuture<?> pendingFlush;
+
+    // 最近播放的歌曲ID，最新的在前，只在记录线程中访问
+    private long[] recentlyPlayedIds = new long[0];
+    private long[] mostPlayedIds = new long[0];
+
+    PlayHistoryRecorder(PlayHistoryDao playHistoryDao, OnListsChangedListener listener) {
+        this.playHistoryDao = playHistoryDao;
+        this.listener = listener;
+        executor.execute(this::loadLists);
+    }
+
+    /**
+     * 记录一次播放，可以在任意线程调用，不会阻塞
+     */
+    public void record(long songId, long startedAt, long listenedMs) {
+        executor.execute(() -> append(songId, startedAt, listenedMs));
+    }
+
+    /**
+     * 立即写入缓冲区中的所有记录
+     */
+    public void flush() {
+        executor.execute(this::flushBuffer);
+    }
+
+    private void loadLists() {
+        recentlyPlayedIds = playHistoryDao.getRecentlyPlayedIds(LIST_SIZE);
+        mostPlayedIds = playHistoryDao.getMostPlayedIds(LIST_SIZE);
+        listener.onListsChanged(recentlyPlayedIds, mostPlayedIds);
+    }
+
+    private void append(long songId, long startedAt, long listenedMs) {
+        int slot = (bufferHead + bufferCount) % BUFFER_CAPACITY;
+        if (bufferCount == BUFFER_CAPACITY) {
+            // 缓冲区已满，覆盖最旧的记录
+            bufferHead = (bufferHead + 1) % BUFFER_CAPACITY;
+        } else {
+            bufferCount++;
+        }
+        bufferSongIds[slot] = songId;
+        bufferStartedAt[slot] = startedAt;
+        bufferListenedMs[slot] = listenedMs;
+
+        if (listenedMs >= MIN_COUNTED_MS) {
+            // 最近播放立即更新，不等待写入数据库
+            moveToFront(songId);
+            listener.onListsChanged(recentlyPlayedIds, mostPlayedIds);
+        }
+
+        if (bufferCount >= FLUSH_THRESHOLD) {
+            flushBuffer();
+        } else if (pendingFlush == null) {
+            pendingFlush = executor.schedule(this::flushBuffer, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void moveToFront(long songId) {
+        long[] current = recentlyPlayedIds;
+        int size = Math.min(LIST_SIZE, current.length + 1);
+        long[] updated = new long[size];
+        updated[0] = songId;
+        int count = 1;
+        for (int i = 0; i < current.length && count < size; i++) {
+            if (current[i] != songId) {
+                updated[count++] = current[i];
+            }
+        }
+        recentlyPlayedIds = count == size ? updated : Arrays.copyOf(updated, count);
+    }
+
+    private void flushBuffer() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        if (bufferCount == 0) {
+            return;
+        }
+
+        // 先在内存中按歌曲合并，再与数据库中的统计合并
+        List<PlayEvent> events = new ArrayList<>(bufferCount);
+        Map<Long, PlayStat> merged = new HashMap<>();
+        for (int i = 0; i < bufferCount; i++) {
+            int slot = (bufferHead + i) % BUFFER_CAPACITY;
+            long songId = bufferSongIds[slot];
+            long startedAt = bufferStartedAt[slot];
+            long listenedMs = bufferListenedMs[slot];
+            events.add(new PlayEvent(songId, startedAt, listenedMs));
+
+            PlayStat stat = merged.get(songId);
+            if (stat == null) {
+                stat = new PlayStat(songId, 0, 0, 0);
+                merged.put(songId, stat);
+            }
+            if (listenedMs >= MIN_COUNTED_MS) {
+                stat.setPlayCount(stat.getPlayCount() + 1);
+                stat.setLastPlayedAt(Math.max(stat.getLastPlayedAt(), startedAt));
+            }
+            stat.setTotalListenedMs(stat.getTotalListenedMs() + listenedMs);
+        }
+        bufferHead = 0;
+        bufferCount = 0;
+
+        long[] songIds = new long[merged.size()];
+        int count = 0;
+        for (long songId : merged.keySet()) {
+            songIds[count++] = songId;
+        }
+        for (PlayStat existing : playHistoryDao.getStats(songIds)) {
+            PlayStat stat = merged.get(existing.getSongId());
+            stat.setPlayCount(stat.getPlayCount() + existing.getPlayCount());
+            stat.setLastPlayedAt(Math.max(stat.getLastPlayedAt(), existing.getLastPlayedAt()));
+            stat.setTotalListenedMs(stat.getTotalListenedMs() + existing.getTotalListenedMs());
+        }
+        playHistoryDao.insertBatch(events, new ArrayList<>(merged.values()));
+
+        mostPlayedIds = playHistoryDao.getMostPlayedIds(LIST_SIZE);
+        listener.onListsChanged(recentlyPlayedIds, mostPlayedIds);
+    }
+}
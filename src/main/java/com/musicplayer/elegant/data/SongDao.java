@@ -0,0 +1,64 @@
+package com.musicplayer.elegant.data;
+
+import android.database.Cursor;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.musicplayer.elegant.model.Song;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 歌曲数据访问对象
+ */
+@Dao
+public interface SongDao {
+
+    // SQLite单条语句的参数数量有限制，批量删除时需要分段
+    int MAX_BATCH_SIZE = 500;
+
+    /**
+     * 歌曲的版本信息，用于和MediaStore做增量比对
+     */
+    class SongVersion {
+        public long id;
+        public long dateModified;
+    }
+
+    /**
+     * 按标题排序的全部歌曲，由调用方逐行读取并负责关闭游标
+     */
+    @Query("SELECT * FROM songs ORDER BY title ASC")
+    Cursor queryAll();
+
+    @Query("SELECT * FROM songs ORDER BY title ASC LIMIT :limit")
+    List<Song> getFirst(int limit);
+
+    @Query("SELECT id, dateModified FROM songs ORDER BY id ASC")
+    List<SongVersion> getVersions();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(List<Song> songs);
+
+    @Query("DELETE FROM songs WHERE id IN (:ids)")
+    void deleteByIds(long[] ids);
+
+    /**
+     * 在一个事务中写入新增/修改的歌曲并删除已移除的歌曲
+     */
+    @Transaction
+    default void applyChanges(List<Song> upserts, long[] removedIds) {
+        if (!upserts.isEmpty()) {
+            upsert(upserts);
+        }
+        for (int from = 0; from < removedIds.length; from += MAX_BATCH_SIZE) {
+            int to = Math.min(from + MAX_BATCH_SIZE, removedIds.length);
+            deleteByIds(Arrays.copyOfRange(removedIds, from, to));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.musicplayer.elegant.data;
+
+import com.musicplayer.elegant.model.Song;
+
+/**
+ * 歌曲ID到歌曲表行号的只读哈希表
+ * <p>
+ * 使用开放寻址和原始数组存储键和行号，查询时不会产生Long装箱。
+ * 由SongTable在构建时一同生成，与歌曲表一起整体替换。
+ */
+final class SongIdIndex {
+
+    private final SongTable table;
+    private final long[] keys;
+    // 行号加一，0表示空槽位，因为ID可能为0
+    private final int[] rows;
+    private final int mask;
+
+    SongIdIndex(SongTable table) {
+        this.table = table;
+        // 负载因子不超过0.5，保证探测链很短
+        int capacity = 16;
+        while (capacity < table.size() * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        rows = new int[capacity];
+        mask = capacity - 1;
+
+        for (int row = 0; row < table.size(); row++) {
+            long id = table.getId(row);
+            int slot = hash(id) & mask;
+            while (rows[slot] != 0 && keys[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = id;
+            rows[slot] = row + 1;
+        }
+    }
+
+    /**
+     * 对应的歌曲表
+     */
+    SongTable getTable() {
+        return table;
+    }
+
+    /**
+     * 根据ID查找行号，不存在时返回-1
+     */
+    int rowOf(long id) {
+        int slot = hash(id) & mask;
+        int row;
+        while ((row = rows[slot]) != 0) {
+            if (keys[slot] == id) {
+                return row - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 根据ID生成歌曲，不存在时返回null
+     */
+    Song get(long id) {
+        int row = rowOf(id);
+        return row >= 0 ? table.get(row) : null;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,239 @@
+package com.musicplayer.elegant.data;
+
+import com.musicplayer.elegant.model.Song;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 按行引用歌曲表的可变歌曲列表
+ * <p>
+ * 来自同一张歌曲表的项只保存行号，读取时才生成Song；其他来源的歌曲按对象保存。
+ * 用于可能和整个曲库一样长的播放队列副本：加入全部歌曲的列表视图时只复制行号，不为每首歌创建对象。
+ * 与{@link SongTable#asList()}一样，读取同一项两次得到的不是同一个对象，但按ID判等。
+ * <p>
+ * 非线程安全。
+ */
+public final class SongRowList extends AbstractList<Song> implements RandomAccess {
+
+    // 行号引用的歌曲表，还没有按行号保存的项时为null
+    private SongTable table;
+    // 按行号保存的项，按对象保存的项为-1
+    private int[] rows;
+    // 按对象保存的项，按行号保存的项为null
+    private Song[] songs;
+    private int size;
+
+    public SongRowList() {
+        this(null, 16);
+    }
+
+    public SongRowList(SongTable table, int capacity) {
+        this.table = table;
+        rows = new int[Math.max(capacity, 16)];
+        songs = new Song[rows.length];
+    }
+
+    /**
+     * 行号引用的歌曲表，可能为null
+     */
+    public SongTable getTable() {
+        return table;
+    }
+
+    /**
+     * 某一项在歌曲表中的行号，按对象保存的项返回-1
+     */
+    public int rowAt(int index) {
+        checkIndex(index);
+        return rows[index];
+    }
+
+    /**
+     * 读取某一项的歌曲ID，不生成Song
+     */
+    public long getId(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        return song != null ? song.getId() : table.getId(rows[index]);
+    }
+
+    /**
+     * 在末尾追加歌曲表中的一行，表必须是本列表引用的表
+     */
+    public void addRow(int row) {
+        ensureCapacity(size + 1);
+        rows[size] = row;
+        songs[size] = null;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Song get(int index) {
+        checkIndex(index);
+        Song song = songs[index];
+        return song != null ? song : table.get(rows[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Song set(int index, Song song) {
+        Song old = get(index);
+        songs[index] = song;
+        rows[index] = -1;
+        return old;
+    }
+
+    @Override
+    public void add(int index, Song song) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        openGap(index, 1);
+        songs[index] = song;
+        rows[index] = -1;
+    }
+
+    @Override
+    public Song remove(int index) {
+        Song old = get(index);
+        removeRange(index, index + 1);
+        return old;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Song> collection) {
+        return addAll(size, collection);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Song> collection) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int count = collection.size();
+        if (count == 0) {
+            return false;
+        }
+        SongTable source = collection instanceof List ? SongTable.tableOf((List<?>) collection) : null;
+        if (source != null && adopt(source)) {
+            // 整张表的列表视图，位置就是行号
+            openGap(index, count);
+            for (int i = 0; i < count; i++) {
+                rows[index + i] = i;
+                songs[index + i] = null;
+            }
+            return true;
+        }
+        if (collection instanceof SongRowList && adopt(((SongRowList) collection).table)) {
+            SongRowList other = (SongRowList) collection;
+            openGap(index, count);
+            System.arraycopy(other.rows, 0, rows, index, count);
+            System.arraycopy(other.songs, 0, songs, index, count);
+            return true;
+        }
+        openGap(index, count);
+        int position = index;
+        for (Song song : collection) {
+            songs[position] = song;
+            rows[position] = -1;
+            position++;
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        removeRange(0, size);
+        // 清空后可以改为引用另一张表
+        table = null;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        System.arraycopy(rows, toIndex, rows, fromIndex, size - toIndex);
+        System.arraycopy(songs, toIndex, songs, fromIndex, size - toIndex);
+        int newSize = size - (toIndex - fromIndex);
+        Arrays.fill(songs, newSize, size, null);
+        size = newSize;
+        modCount++;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        // 歌曲以ID判等，直接比较ID，不需要逐项生成Song
+        if (!(o instanceof Song)) {
+            return -1;
+        }
+        long id = ((Song) o).getId();
+        for (int i = 0; i < size; i++) {
+            if (getId(i) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        if (!(o instanceof Song)) {
+            return -1;
+        }
+        long id = ((Song) o).getId();
+        for (int i = size - 1; i >= 0; i--) {
+            if (getId(i) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /**
+     * 尝试按行号引用source，本列表已经引用了另一张表时返回false
+     */
+    private boolean adopt(SongTable source) {
+        if (source == null) {
+            return false;
+        }
+        if (table == null) {
+            table = source;
+        }
+        return table == source;
+    }
+
+    private void openGap(int index, int count) {
+        ensureCapacity(size + count);
+        System.arraycopy(rows, index, rows, index + count, size - index);
+        System.arraycopy(songs, index, songs, index + count, size - index);
+        size += count;
+        modCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= rows.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, rows.length * 2);
+        rows = Arrays.copyOf(rows, newCapacity);
+        songs = Arrays.copyOf(songs, newCapacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
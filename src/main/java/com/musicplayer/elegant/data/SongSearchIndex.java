@@ -0,0 +1,357 @@
+package com.musicplayer.elegant.data;
+
+import com.musicplayer.elegant.model.Song;
+import com.musicplayer.elegant.util.LongIntMap;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 歌曲搜索索引
+ * <p>
+ * 每首歌的标题、艺术家、专辑在建索引时统一转成小写并去掉空白，
+ * 含汉字的字段额外生成全拼和首字母。所有这些字符串的单字和二元组
+ * 都建立倒排表，查询时取最短的倒排表作为候选集，再逐个确认并打分。
+ * 标题匹配优先于艺术家，艺术家优先于专辑。索引只保存歌曲ID，由调用方解析成歌曲。
+ */
+public class SongSearchIndex {
+
+    // 每首歌的匹配字段：标题、艺术家、专辑各自的原文、全拼、首字母
+    private static final int FIELD_COUNT = 3;
+    private static final int FORMS_PER_FIELD = 3;
+    private static final int KEYS_PER_DOC = FIELD_COUNT * FORMS_PER_FIELD;
+
+    // 字段权重，保证标题匹配总是排在艺术家、专辑匹配之前
+    private static final int[] FIELD_SCORES = {3000, 2000, 1000};
+    // 同一字段内原文优先于全拼，全拼优先于首字母
+    private static final int[] FORM_SCORES = {300, 200, 100};
+    private static final int PREFIX_BONUS = 50;
+    private static final int EXACT_BONUS = 50;
+
+    // 已删除文档超过一半时重建索引
+    private static final int MIN_COMPACT_SIZE = 1024;
+
+    /**
+     * 倒排表，文档编号按升序追加
+     */
+    private static final class Postings {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+
+    /**
+     * n元组到倒排表的哈希表，使用开放寻址和原始int键，查询时不会产生Integer装箱
+     */
+    private static final class PostingsMap {
+        private int[] keys = new int[1024];
+        // 空槽位以null标记
+        private Postings[] values = new Postings[1024];
+        private int mask = 1023;
+        private int size;
+
+        Postings get(int gram) {
+            int slot = hash(gram) & mask;
+            Postings value;
+            while ((value = values[slot]) != null) {
+                if (keys[slot] == gram) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        Postings getOrCreate(int gram) {
+            int slot = hash(gram) & mask;
+            Postings value;
+            while ((value = values[slot]) != null) {
+                if (keys[slot] == gram) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+            value = new Postings();
+            keys[slot] = gram;
+            values[slot] = value;
+            // 负载因子不超过0.5
+            if (++size * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            return value;
+        }
+
+        void clear() {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new int[capacity];
+            values = new Postings[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(int gram) {
+            int h = gram * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private final PinyinConverter pinyinConverter = new PinyinConverter();
+    private final PostingsMap postings = new PostingsMap();
+    private final LongIntMap docBySongId = new LongIntMap();
+    private long[] docIds = new long[256];
+    // 已删除的文档，倒排表中仍保留其编号
+    private boolean[] deleted = new boolean[256];
+    private String[] keys = new String[256 * KEYS_PER_DOC];
+    private int docCount;
+    private int deletedCount;
+
+    /**
+     * 批量添加歌曲，已存在的歌曲会被替换
+     */
+    public synchronized void addAll(List<Song> songs) {
+        for (Song song : songs) {
+            remove(song.getId());
+            add(song.getId(), song.getTitle(), song.getArtist(), song.getAlbum());
+        }
+    }
+
+    /**
+     * 应用一次目录变化
+     */
+    public synchronized void apply(List<Song> upserts, long[] removedIds) {
+        for (long id : removedIds) {
+            remove(id);
+        }
+        addAll(upserts);
+        compactIfNeeded();
+    }
+
+    /**
+     * 清空并用歌曲表重建索引，直接读取表中的列
+     */
+    public synchronized void rebuild(SongTable table) {
+        clear();
+        for (int row = 0; row < table.size(); row++) {
+            add(table.getId(row), table.getTitle(row), table.getArtist(row), table.getAlbum(row));
+        }
+    }
+
+    /**
+     * 搜索歌曲，返回匹配歌曲的ID，按匹配程度降序排列，分数相同时按加入索引的顺序
+     */
+    public synchronized long[] search(String query) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) {
+            return new long[0];
+        }
+
+        Postings candidates = shortestPostings(normalized);
+        if (candidates == null) {
+            return new long[0];
+        }
+
+        // 高位存分数，低位存文档编号，排序一次即可同时按分数和加入顺序排列
+        long[] ranked = new long[candidates.size];
+        int matched = 0;
+        for (int i = 0; i < candidates.size; i++) {
+            int doc = candidates.docs[i];
+            if (deleted[doc]) {
+                continue;
+            }
+            int score = score(doc, normalized);
+            if (score > 0) {
+                ranked[matched++] = ((long) -score << 32) | doc;
+            }
+        }
+
+        Arrays.sort(ranked, 0, matched);
+        long[] result = new long[matched];
+        for (int i = 0; i < matched; i++) {
+            result[i] = docIds[(int) ranked[i]];
+        }
+        return result;
+    }
+
+    private void clear() {
+        postings.clear();
+        docBySongId.clear();
+        Arrays.fill(keys, 0, docCount * KEYS_PER_DOC, null);
+        docCount = 0;
+        deletedCount = 0;
+    }
+
+    private void add(long songId, String title, String artist, String album) {
+        int doc = newDoc(songId);
+        int base = doc * KEYS_PER_DOC;
+        putField(doc, base, title);
+        putField(doc, base + FORMS_PER_FIELD, artist);
+        putField(doc, base + FORMS_PER_FIELD * 2, album);
+    }
+
+    private int newDoc(long songId) {
+        if (docCount == docIds.length) {
+            docIds = Arrays.copyOf(docIds, docCount * 2);
+            deleted = Arrays.copyOf(deleted, docIds.length);
+            keys = Arrays.copyOf(keys, docIds.length * KEYS_PER_DOC);
+        }
+        int doc = docCount++;
+        docIds[doc] = songId;
+        deleted[doc] = false;
+        docBySongId.put(songId, doc);
+        return doc;
+    }
+
+    private void putField(int doc, int offset, String text) {
+        keys[offset] = index(doc, normalize(text));
+        String syllables = pinyinConverter.toSyllables(text);
+        if (syllables != null) {
+            keys[offset + 1] = index(doc, PinyinConverter.fullPinyin(syllables));
+            keys[offset + 2] = index(doc, PinyinConverter.initials(syllables));
+        }
+    }
+
+    private String index(int doc, String key) {
+        if (key.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            postingsFor(unigram(key.charAt(i))).add(doc);
+            if (i + 1 < key.length()) {
+                postingsFor(bigram(key.charAt(i), key.charAt(i + 1))).add(doc);
+            }
+        }
+        return key;
+    }
+
+    private void remove(long songId) {
+        int doc = docBySongId.remove(songId);
+        if (doc >= 0) {
+            // 倒排表中保留编号，查询时跳过已删除的文档
+            deleted[doc] = true;
+            Arrays.fill(keys, doc * KEYS_PER_DOC, (doc + 1) * KEYS_PER_DOC, null);
+            deletedCount++;
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (docCount >= MIN_COMPACT_SIZE && deletedCount * 2 > docCount) {
+            // 直接复用已生成的键重建倒排表，不需要再转换拼音
+            long[] oldIds = docIds;
+            boolean[] oldDeleted = deleted;
+            String[] oldKeys = keys;
+            int oldCount = docCount;
+            docIds = new long[oldIds.length];
+            deleted = new boolean[oldIds.length];
+            keys = new String[oldKeys.length];
+            clear();
+            for (int i = 0; i < oldCount; i++) {
+                if (oldDeleted[i]) {
+                    continue;
+                }
+                int doc = newDoc(oldIds[i]);
+                for (int k = 0; k < KEYS_PER_DOC; k++) {
+                    String key = oldKeys[i * KEYS_PER_DOC + k];
+                    keys[doc * KEYS_PER_DOC + k] = key != null ? index(doc, key) : null;
+                }
+            }
+        }
+    }
+
+    private Postings shortestPostings(String query) {
+        if (query.length() == 1) {
+            return postings.get(unigram(query.charAt(0)));
+        }
+        Postings shortest = null;
+        for (int i = 0; i + 1 < query.length(); i++) {
+            Postings list = postings.get(bigram(query.charAt(i), query.charAt(i + 1)));
+            if (list == null) {
+                // 有任何一个二元组不存在，就不可能匹配
+                return null;
+            }
+            if (shortest == null || list.size < shortest.size) {
+                shortest = list;
+            }
+        }
+        return shortest;
+    }
+
+    private int score(int doc, String query) {
+        int best = 0;
+        int base = doc * KEYS_PER_DOC;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            for (int form = 0; form < FORMS_PER_FIELD; form++) {
+                String key = keys[base + field * FORMS_PER_FIELD + form];
+                if (key == null) {
+                    continue;
+                }
+                int position = key.indexOf(query);
+                if (position < 0) {
+                    continue;
+                }
+                int score = FIELD_SCORES[field] + FORM_SCORES[form];
+                if (position == 0) {
+                    score += PREFIX_BONUS;
+                    if (key.length() == query.length()) {
+                        score += EXACT_BONUS;
+                    }
+                }
+                best = Math.max(best, score);
+            }
+        }
+        return best;
+    }
+
+    private Postings postingsFor(int gram) {
+        return postings.getOrCreate(gram);
+    }
+
+    private static int unigram(char c) {
+        return c;
+    }
+
+    private static int bigram(char first, char second) {
+        // 字符不为0，二元组的值总是大于任何单字，两者不会冲突
+        return (first << 16) | second;
+    }
+
+    /**
+     * 统一大小写并去掉空白
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                builder.append(Character.toLowerCase(c));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,353 @@
+package com.musicplayer.elegant.data;
+
+import android.database.Cursor;
+
+import com.musicplayer.elegant.model.Song;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * 按列存储的只读歌曲表
+ * <p>
+ * 每个字段是一个按行排列的数组，ID、时长等数值列使用原始类型数组，没有逐首歌的对象头和装箱；
+ * 艺术家和专辑名在构建时去重，同名的行共用同一个字符串。封面URI由专辑ID推算，不逐行保存。
+ * 需要Song时按行临时生成，{@link #asList()}返回的列表只在读取某一行时才创建对应的Song。
+ * <p>
+ * 构建完成后不再修改，曲库变化时整体替换，可以在任意线程读取。
+ */
+public final class SongTable {
+
+    static final SongTable EMPTY = new Builder(0).build();
+
+    private final int size;
+    private final long[] ids;
+    private final String[] titles;
+    private final String[] artists;
+    private final String[] albums;
+    private final String[] paths;
+    private final long[] durations;
+    private final long[] albumIds;
+    private final long[] artistIds;
+    private final long[] sizes;
+    private final long[] datesAdded;
+    private final long[] datesModified;
+    private final int[] trackNumbers;
+    private final SongIdIndex idIndex;
+    private final List<Song> rows = new RowList();
+
+    private SongTable(Builder builder) {
+        size = builder.size;
+        ids = Arrays.copyOf(builder.ids, size);
+        titles = Arrays.copyOf(builder.titles, size);
+        artists = Arrays.copyOf(builder.artists, size);
+        albums = Arrays.copyOf(builder.albums, size);
+        paths = Arrays.copyOf(builder.paths, size);
+        durations = Arrays.copyOf(builder.durations, size);
+        albumIds = Arrays.copyOf(builder.albumIds, size);
+        artistIds = Arrays.copyOf(builder.artistIds, size);
+        sizes = Arrays.copyOf(builder.sizes, size);
+        datesAdded = Arrays.copyOf(builder.datesAdded, size);
+        datesModified = Arrays.copyOf(builder.datesModified, size);
+        trackNumbers = Arrays.copyOf(builder.trackNumbers, size);
+        // 所有列就绪后再建立ID索引
+        idIndex = new SongIdIndex(this);
+    }
+
+    /**
+     * 列表由歌曲表生成时返回对应的表，否则返回null
+     */
+    public static SongTable tableOf(List<?> list) {
+        return list instanceof RowList ? ((RowList) list).table() : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getId(int row) {
+        return ids[row];
+    }
+
+    public String getTitle(int row) {
+        return titles[row];
+    }
+
+    public String getArtist(int row) {
+        return artists[row];
+    }
+
+    public String getAlbum(int row) {
+        return albums[row];
+    }
+
+    public long getDuration(int row) {
+        return durations[row];
+    }
+
+    public long getAlbumId(int row) {
+        return albumIds[row];
+    }
+
+    public long getArtistId(int row) {
+        return artistIds[row];
+    }
+
+    public long getDateAdded(int row) {
+        return datesAdded[row];
+    }
+
+    public long getDateModified(int row) {
+        return datesModified[row];
+    }
+
+    public int getTrackNumber(int row) {
+        return trackNumbers[row];
+    }
+
+    /**
+     * 根据歌曲ID查找行号，不存在时返回-1
+     */
+    public int rowOf(long id) {
+        return idIndex.rowOf(id);
+    }
+
+    SongIdIndex idIndex() {
+        return idIndex;
+    }
+
+    /**
+     * 生成某一行的Song，每次调用都返回新的对象
+     * <p>
+     * 同一行两次生成的Song不是同一个对象，但按ID判等。频繁按行读取的地方（差异计算、列表绑定）
+     * 应直接使用上面的列访问方法。
+     */
+    public Song get(int row) {
+        Song song = new Song(ids[row], titles[row], artists[row], albums[row], paths[row],
+                durations[row], albumIds[row], artistIds[row], sizes[row], datesAdded[row]);
+        song.setDateModified(datesModified[row]);
+        song.setTrackNumber(trackNumbers[row]);
+        return song;
+    }
+
+    /**
+     * 以列表形式访问整张表，读取某一项时才生成对应的Song，每次读取都是新的对象
+     * <p>
+     * 列表中的位置就是行号，可以用{@link #tableOf(List)}取回表后按列读取。
+     */
+    public List<Song> asList() {
+        return rows;
+    }
+
+    /**
+     * 添加日期最新的若干行，按添加日期降序排列
+     */
+    int[] newestRows(int limit) {
+        int count = Math.min(limit, size);
+        int[] result = new int[count];
+        int filled = 0;
+        // 只保留当前最新的count行，逐行插入有序的小数组
+        for (int row = 0; row < size; row++) {
+            long dateAdded = datesAdded[row];
+            if (filled == count && (count == 0 || dateAdded <= datesAdded[result[count - 1]])) {
+                continue;
+            }
+            int position = filled < count ? filled++ : count - 1;
+            while (position > 0 && datesAdded[result[position - 1]] < dateAdded) {
+                result[position] = result[position - 1];
+                position--;
+            }
+            result[position] = row;
+        }
+        return result;
+    }
+
+    /**
+     * 按行读取表的只读列表
+     */
+    private final class RowList extends AbstractList<Song> implements RandomAccess {
+
+        @Override
+        public Song get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return SongTable.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        SongTable table() {
+            return SongTable.this;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            // 歌曲以ID判等，表中ID唯一，直接查ID索引，不需要逐行生成Song
+            return o instanceof Song ? rowOf(((Song) o).getId()) : -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return indexOf(o);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOf(o) >= 0;
+        }
+    }
+
+    /**
+     * 逐行追加构建歌曲表，同一个Builder中的艺术家和专辑名共享去重池
+     */
+    static final class Builder {
+        private int size;
+        private long[] ids;
+        private String[] titles;
+        private String[] artists;
+        private String[] albums;
+        private String[] paths;
+        private long[] durations;
+        private long[] albumIds;
+        private long[] artistIds;
+        private long[] sizes;
+        private long[] datesAdded;
+        private long[] datesModified;
+        private int[] trackNumbers;
+        private final Map<String, String> pool = new HashMap<>();
+
+        Builder(int capacity) {
+            ids = new long[capacity];
+            titles = new String[capacity];
+            artists = new String[capacity];
+            albums = new String[capacity];
+            paths = new String[capacity];
+            durations = new long[capacity];
+            albumIds = new long[capacity];
+            artistIds = new long[capacity];
+            sizes = new long[capacity];
+            datesAdded = new long[capacity];
+            datesModified = new long[capacity];
+            trackNumbers = new int[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        Builder add(Song song) {
+            addRow(song.getId(), song.getTitle(), song.getArtist(), song.getAlbum(), song.getPath(),
+                    song.getDuration(), song.getAlbumId(), song.getArtistId(), song.getSize(),
+                    song.getDateAdded(), song.getDateModified(), song.getTrackNumber());
+            return this;
+        }
+
+        Builder addAll(List<Song> songs) {
+            for (Song song : songs) {
+                add(song);
+            }
+            return this;
+        }
+
+        /**
+         * 复制另一张表中的一行
+         */
+        Builder add(SongTable table, int row) {
+            addRow(table.ids[row], table.titles[row], table.artists[row], table.albums[row], table.paths[row],
+                    table.durations[row], table.albumIds[row], table.artistIds[row], table.sizes[row],
+                    table.datesAdded[row], table.datesModified[row], table.trackNumbers[row]);
+            return this;
+        }
+
+        /**
+         * 读取songs表的游标中的全部行，不经过Song对象
+         */
+        Builder addAll(Cursor cursor) {
+            int idColumn = cursor.getColumnIndexOrThrow("id");
+            int titleColumn = cursor.getColumnIndexOrThrow("title");
+            int artistColumn = cursor.getColumnIndexOrThrow("artist");
+            int albumColumn = cursor.getColumnIndexOrThrow("album");
+            int pathColumn = cursor.getColumnIndexOrThrow("path");
+            int durationColumn = cursor.getColumnIndexOrThrow("duration");
+            int albumIdColumn = cursor.getColumnIndexOrThrow("albumId");
+            int artistIdColumn = cursor.getColumnIndexOrThrow("artistId");
+            int sizeColumn = cursor.getColumnIndexOrThrow("size");
+            int dateAddedColumn = cursor.getColumnIndexOrThrow("dateAdded");
+            int dateModifiedColumn = cursor.getColumnIndexOrThrow("dateModified");
+            int trackNumberColumn = cursor.getColumnIndexOrThrow("trackNumber");
+            ensureCapacity(size + cursor.getCount());
+            while (cursor.moveToNext()) {
+                addRow(cursor.getLong(idColumn), cursor.getString(titleColumn), cursor.getString(artistColumn),
+                        cursor.getString(albumColumn), cursor.getString(pathColumn), cursor.getLong(durationColumn),
+                        cursor.getLong(albumIdColumn), cursor.getLong(artistIdColumn), cursor.getLong(sizeColumn),
+                        cursor.getLong(dateAddedColumn), cursor.getLong(dateModifiedColumn),
+                        cursor.getInt(trackNumberColumn));
+            }
+            return this;
+        }
+
+        /**
+         * 生成当前内容的快照，之后仍可以继续追加
+         */
+        SongTable build() {
+            return new SongTable(this);
+        }
+
+        private void addRow(long id, String title, String artist, String album, String path, long duration,
+                            long albumId, long artistId, long songSize, long dateAdded, long dateModified,
+                            int trackNumber) {
+            ensureCapacity(size + 1);
+            ids[size] = id;
+            titles[size] = title;
+            artists[size] = intern(artist);
+            albums[size] = intern(album);
+            paths[size] = path;
+            durations[size] = duration;
+            albumIds[size] = albumId;
+            artistIds[size] = artistId;
+            sizes[size] = songSize;
+            datesAdded[size] = dateAdded;
+            datesModified[size] = dateModified;
+            trackNumbers[size] = trackNumber;
+            size++;
+        }
+
+        /**
+         * 相同内容的字符串只保留第一次出现的实例
+         */
+        private String intern(String value) {
+            if (value == null) {
+                return null;
+            }
+            String existing = pool.putIfAbsent(value, value);
+            return existing != null ? existing : value;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= ids.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, Math.max(16, ids.length * 2));
+            ids = Arrays.copyOf(ids, newCapacity);
+            titles = Arrays.copyOf(titles, newCapacity);
+            artists = Arrays.copyOf(artists, newCapacity);
+            albums = Arrays.copyOf(albums, newCapacity);
+            paths = Arrays.copyOf(paths, newCapacity);
+            durations = Arrays.copyOf(durations, newCapacity);
+            albumIds = Arrays.copyOf(albumIds, newCapacity);
+            artistIds = Arrays.copyOf(artistIds, newCapacity);
+            sizes = Arrays.copyOf(sizes, newCapacity);
+            datesAdded = Arrays.copyOf(datesAdded, newCapacity);
+            datesModified = Arrays.copyOf(datesModified, newCapacity);
+            trackNumbers = Arrays.copyOf(trackNumbers, newCapacity);
+        }
+    }
+}
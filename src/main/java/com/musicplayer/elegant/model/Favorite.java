@@ -0,0 +1,36 @@
+package com.musicplayer.elegant.model;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * 收藏记录实体类
+ */
+@Entity(tableName = "favorites")
+public class Favorite {
+
+    @PrimaryKey
+    private long songId;     // 歌曲ID
+    private long addedAt;    // 收藏时间
+
+    public Favorite(long songId, long addedAt) {
+        this.songId = songId;
+        this.addedAt = addedAt;
+    }
+
+    public long getSongId() {
+        return songId;
+    }
+
+    public void setSongId(long songId) {
+        this.songId = songId;
+    }
+
+    public long getAddedAt() {
+        return addedAt;
+    }
+
+    public void setAddedAt(long addedAt) {
+        this.addedAt = addedAt;
+    }
+}
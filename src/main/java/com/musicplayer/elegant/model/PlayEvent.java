@@ -0,0 +1,56 @@
+package com.musicplayer.elegant.model;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * 播放记录实体类，每次播放一首歌产生一条
+ */
+@Entity(tableName = "play_history")
+public class PlayEvent {
+
+    @PrimaryKey(autoGenerate = true)
+    private long id;
+    
+    private long songId;         // 歌曲ID
+    private long startedAt;      // 开始播放时间
+    private long listenedMs;     // 实际收听时长（毫秒）
+
+    public PlayEvent(long songId, long startedAt, long listenedMs) {
+        this.songId = songId;
+        this.startedAt = startedAt;
+        this.listenedMs = listenedMs;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getSongId() {
+        return songId;
+    }
+
+    public void setSongId(long songId) {
+        this.songId = songId;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getListenedMs() {
+        return listenedMs;
+    }
+
+    public void setListenedMs(long listenedMs) {
+        this.listenedMs = listenedMs;
+    }
+}
@@ -0,0 +1,58 @@
+package com.musicplayer.elegant.model;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * 歌曲播放统计实体类，由播放记录聚合而来
+ */
+@Entity(tableName = "play_stats", indices = {@Index("lastPlayedAt"), @Index("playCount")})
+public class PlayStat {
+
+    @PrimaryKey
+    private long songId;
+    
+    private int playCount;           // 播放次数
+    private long lastPlayedAt;       // 最后播放时间
+    private long totalListenedMs;    // 累计收听时长（毫秒）
+
+    public PlayStat(long songId, int playCount, long lastPlayedAt, long totalListenedMs) {
+        this.songId = songId;
+        this.playCount = playCount;
+        this.lastPlayedAt = lastPlayedAt;
+        this.totalListenedMs = totalListenedMs;
+    }
+
+    public long getSongId() {
+        return songId;
+    }
+
+    public void setSongId(long songId) {
+        this.songId = songId;
+    }
+
+    public int getPlayCount() {
+        return playCount;
+    }
+
+    public void setPlayCount(int playCount) {
+        this.playCount = playCount;
+    }
+
+    public long getLastPlayedAt() {
+        return lastPlayedAt;
+    }
+
+    public void setLastPlayedAt(long lastPlayedAt) {
+        this.lastPlayedAt = lastPlayedAt;
+    }
+
+    public long getTotalListenedMs() {
+        return totalListenedMs;
+    }
+
+    public void setTotalListenedMs(long totalListenedMs) {
+        this.totalListenedMs = totalListenedMs;
+    }
+}
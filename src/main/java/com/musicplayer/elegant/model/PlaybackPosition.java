@@ -0,0 +1,49 @@
+package com.musicplayer.elegant.model;
+
+/**
+ * 播放进度锚点
+ * <p>
+ * 只在播放状态、速度或位置发生跳变时发布一次，
+ * 界面根据锚点和经过的时间在本地推算当前进度，不需要轮询播放器。
+ */
+public final class PlaybackPosition {
+
+    public static final PlaybackPosition IDLE = new PlaybackPosition(0, 0, 0, 1.0f, false);
+
+    private final long positionMs;     // 锚点时刻的播放位置
+    private final long durationMs;     // 歌曲总时长
+    private final long updateTime;     // 锚点时刻（elapsedRealtime）
+    private final float speed;         // 播放速度
+    private final boolean playing;     // 进度是否在前进
+
+    public PlaybackPosition(long positionMs, long durationMs, long updateTime, float speed, boolean playing) {
+        this.positionMs = positionMs;
+        this.durationMs = durationMs;
+        this.updateTime = updateTime;
+        this.speed = speed;
+        this.playing = playing;
+    }
+
+    /**
+     * 推算指定时刻（elapsedRealtime）的播放位置
+     */
+    public long getPosition(long now) {
+        if (!playing) {
+            return positionMs;
+        }
+        long position = positionMs + (long) ((now - updateTime) * speed);
+        return durationMs > 0 ? Math.min(position, durationMs) : position;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+}
@@ -1,17 +1,19 @@
 package com.musicplayer.elegant.model;
 
-import android.net.Uri;
-
 import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
+import com.musicplayer.elegant.util.TimeFormatter;
+
 /**
- * 歌曲实体类
+ * 歌曲实体类，主键即MediaStore中的_ID
  */
-@Entity(tableName = "songs")
+@Entity(tableName = "songs", indices = {@Index("title")})
 public class Song {
 
-    @PrimaryKey(autoGenerate = true)
+    @PrimaryKey
     private long id;
     
     private String title;        // 歌曲标题
@@ -19,24 +21,25 @@ public class Song {
     private String album;        // 专辑名
     private String path;         // 文件路径
     private long duration;       // 时长（毫秒）
-    private String albumArtUri;  // 专辑封面URI
     private long albumId;        // 专辑ID
     private long artistId;       // 艺术家ID
     private long size;           // 文件大小
     private long dateAdded;      // 添加日期
+    private long dateModified;   // 修改日期，用于增量同步
+    private int trackNumber;     // 曲目号，MediaStore中为碟号×1000+曲目号
 
     public Song() {
     }
 
+    @Ignore
     public Song(long id, String title, String artist, String album, String path, long duration, 
-               String albumArtUri, long albumId, long artistId, long size, long dateAdded) {
+               long albumId, long artistId, long size, long dateAdded) {
         this.id = id;
         this.title = title;
         this.artist = artist;
         this.album = album;
         this.path = path;
         this.duration = duration;
-        this.albumArtUri = albumArtUri;
         this.albumId = albumId;
         this.artistId = artistId;
         this.size = size;
@@ -91,14 +94,6 @@ public class Song {
         this.duration = duration;
     }
 
-    public String getAlbumArtUri() {
-        return albumArtUri;
-    }
-
-    public void setAlbumArtUri(String albumArtUri) {
-        this.albumArtUri = albumArtUri;
-    }
-
     public long getAlbumId() {
         return albumId;
     }
@@ -131,13 +126,27 @@ public class Song {
         this.dateAdded = dateAdded;
     }
 
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    public void setDateModified(long dateModified) {
+        this.dateModified = dateModified;
+    }
+
+    public int getTrackNumber() {
+        return trackNumber;
+    }
+
+    public void setTrackNumber(int trackNumber) {
+        this.trackNumber = trackNumber;
+    }
+
     /**
      * 格式化歌曲时长为分:秒格式
      */
     public String getFormattedDuration() {
-        long minutes = duration / 60000;
-        long seconds = (duration % 60000) / 1000;
-        return String.format("%d:%02d", minutes, seconds);
+        return TimeFormatter.format(duration);
     }
 
     @Override
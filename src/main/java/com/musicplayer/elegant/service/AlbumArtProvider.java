@@ -0,0 +1,135 @@
+package com.musicplayer.elegant.service;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.musicplayer.elegant.MusicPlayerApplication;
+import com.musicplayer.elegant.util.AlbumArtLoader;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 向媒体浏览客户端提供缩放后的专辑封面
+ * <p>
+ * 媒体目录中的封面URI指向这里而不是MediaStore，车载、系统界面和蓝牙等客户端没有媒体读取权限也能读取。
+ * 封面取自AlbumArtLoader按尺寸档位缓存的缩略图，压缩后通过管道返回，没有封面时返回FileNotFoundException。
+ * 只读，读取时按媒体目录相同的规则校验调用方。
+ */
+public class AlbumArtProvider extends ContentProvider implements ContentProvider.PipeDataWriter<Bitmap> {
+
+    private static final String TAG = "AlbumArtProvider";
+    static final String AUTHORITY = "com.musicplayer.elegant.albumart";
+    private static final String PATH_ALBUM = "album";
+    private static final String MIME_TYPE = "image/jpeg";
+    // 浏览客户端显示的封面尺寸，落在256的档位上
+    private static final int ART_SIZE_PX = 256;
+    private static final int JPEG_QUALITY = 90;
+
+    private BrowserClientValidator clientValidator;
+
+    /**
+     * 专辑封面的URI
+     */
+    static Uri uriFor(long albumId) {
+        return new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .authority(AUTHORITY)
+                .appendPath(PATH_ALBUM)
+                .appendPath(String.valueOf(albumId))
+                .build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        // 此时Application还没有完成onCreate，封面加载器在读取时再获取
+        clientValidator = new BrowserClientValidator(getContext());
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new SecurityException("只读: " + uri);
+        }
+        if (!clientValidator.isAllowed(getCallingPackage(), Binder.getCallingUid())) {
+            throw new SecurityException("不允许读取封面: " + getCallingPackage());
+        }
+        long albumId = parseAlbumId(uri);
+        AlbumArtLoader albumArtLoader =
+                ((MusicPlayerApplication) getContext().getApplicationContext()).getAlbumArtLoader();
+        // 在Binder线程中同步解码，命中磁盘缓存时只是读取缩略图
+        Bitmap art = albumArtLoader.loadBitmap(getContext(), albumId, ART_SIZE_PX);
+        if (art == null) {
+            throw new FileNotFoundException("没有封面: " + uri);
+        }
+        return openPipeHelper(uri, MIME_TYPE, null, art, this);
+    }
+
+    @Override
+    public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri, @NonNull String mimeType,
+                                @Nullable Bundle opts, @Nullable Bitmap art) {
+        try (FileOutputStream out = new FileOutputStream(output.getFileDescriptor())) {
+            art.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            // 客户端提前关闭了管道
+            Log.w(TAG, "写入封面失败: " + uri, e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return MIME_TYPE;
+    }
+
+    private static long parseAlbumId(Uri uri) throws FileNotFoundException {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() == 2 && PATH_ALBUM.equals(segments.get(0))) {
+            try {
+                return Long.parseLong(segments.get(1));
+            } catch (NumberFormatException e) {
+                // 按未知的URI处理
+            }
+        }
+        throw new FileNotFoundException("未知的URI: " + uri);
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("只读");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("只读");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("只读");
+    }
+}
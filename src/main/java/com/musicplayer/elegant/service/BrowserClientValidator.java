@@ -0,0 +1,78 @@
+package com.musicplayer.elegant.service;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Process;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 媒体浏览客户端的校验
+ * <p>
+ * 只允许本应用、系统进程、与系统同签名的应用（如系统界面），以及白名单中的车载、穿戴和语音助手连接。
+ * 白名单按包名匹配，同时确认该包名确实属于发起连接的UID，防止其他应用冒用包名。
+ * 校验结果按UID和包名缓存。
+ */
+class BrowserClientValidator {
+
+    // 允许浏览曲库的外部客户端
+    private static final Set<String> ALLOWED_PACKAGES = new HashSet<>(Arrays.asList(
+            "com.android.systemui",                             // 系统界面，锁屏和通知中的媒体控制
+            "com.google.android.projection.gearhead",           // Android Auto
+            "com.google.android.wearable.app",                  // Wear OS
+            "com.google.android.googlequicksearchbox",          // Google助理
+            "com.google.android.autosimulator",                 // 车载模拟器
+            "com.android.bluetooth"                             // 蓝牙AVRCP浏览
+    ));
+
+    private final PackageManager packageManager;
+    private final Map<String, Boolean> cache = new HashMap<>();
+
+    BrowserClientValidator(Context context) {
+        this.packageManager = context.getPackageManager();
+    }
+
+    /**
+     * 是否允许该客户端浏览曲库和控制播放
+     */
+    synchronized boolean isAllowed(String clientPackageName, int clientUid) {
+        String key = clientUid + ":" + clientPackageName;
+        Boolean cached = cache.get(key);
+        if (cached == null) {
+            cached = check(clientPackageName, clientUid);
+            cache.put(key, cached);
+        }
+        return cached;
+    }
+
+    private boolean check(String clientPackageName, int clientUid) {
+        if (clientUid == Process.myUid() || clientUid == Process.SYSTEM_UID) {
+            return true;
+        }
+        if (!belongsToUid(clientPackageName, clientUid)) {
+            return false;
+        }
+        // 与系统框架同签名的应用
+        if (packageManager.checkSignatures("android", clientPackageName) == PackageManager.SIGNATURE_MATCH) {
+            return true;
+        }
+        return ALLOWED_PACKAGES.contains(clientPackageName);
+    }
+
+    private boolean belongsToUid(String packageName, int uid) {
+        String[] packages = packageManager.getPackagesForUid(uid);
+        if (packages == null) {
+            return false;
+        }
+        for (String name : packages) {
+            if (name.equals(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,77 @@
+package com.musicplayer.elegant.service;
+
+import java.util.Arrays;
+
+/**
+ * 延迟直方图，按2的幂划分桶，记录时不分配内存
+ * <p>
+ * 第0个桶表示小于1毫秒，第i个桶表示[2^(i-1), 2^i)毫秒，最后一个桶收纳所有更大的值。
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 16;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long sumMs;
+    private long maxMs;
+
+    /**
+     * 记录一次延迟（毫秒）
+     */
+    public synchronized void record(long latencyMs) {
+        long value = Math.max(0, latencyMs);
+        int bucket = value == 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+        buckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+        count++;
+        sumMs += value;
+        maxMs = Math.max(maxMs, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMaxMs() {
+        return maxMs;
+    }
+
+    public synchronized long getAverageMs() {
+        return count == 0 ? 0 : sumMs / count;
+    }
+
+    /**
+     * 估算百分位数，返回所在桶的上界（毫秒）
+     */
+    public synchronized long getPercentileMs(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                return i == BUCKET_COUNT - 1 ? maxMs : Math.min(1L << i, maxMs);
+            }
+        }
+        return maxMs;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        sumMs = 0;
+        maxMs = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + count
+                + " avg=" + getAverageMs() + "ms"
+                + " p50<=" + getPercentileMs(50) + "ms"
+                + " p90<=" + getPercentileMs(90) + "ms"
+                + " p99<=" + getPercentileMs(99) + "ms"
+                + " max=" + maxMs + "ms";
+    }
+}
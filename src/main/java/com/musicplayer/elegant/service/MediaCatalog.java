@@ -0,0 +1,309 @@
+package com.musicplayer.elegant.service;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Process;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
+
+import androidx.media.MediaBrowserServiceCompat;
+
+import com.musicplayer.elegant.R;
+import com.musicplayer.elegant.data.LibraryIndex;
+import com.musicplayer.elegant.data.MusicRepository;
+import com.musicplayer.elegant.data.SongTable;
+import com.musicplayer.elegant.model.Song;
+import com.musicplayer.elegant.util.AlbumArtLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 供锁屏、蓝牙和车载等外部客户端浏览的媒体目录
+ * <p>
+ * 目录分为全部歌曲、专辑、歌手和收藏四类，歌手下是其专辑，专辑下是按曲目号排列的歌曲。
+ * 分组直接取自曲库的专辑和歌手索引，子项在客户端请求时才在目录线程中生成，
+ * 支持按页加载，每次只为请求的那一页构建条目。条目只带封面的URI，由客户端按需加载；
+ * URI指向{@link AlbumArtProvider}提供的缩略图，客户端不需要媒体读取权限。已知没有封面的专辑不提供URI。
+ */
+class MediaCatalog {
+
+    static final String ROOT_ID = "root";
+    private static final String SONGS_ID = "songs";
+    private static final String ALBUMS_ID = "albums";
+    private static final String ARTISTS_ID = "artists";
+    private static final String FAVORITES_ID = "favorites";
+    private static final String ALBUM_PREFIX = "album/";
+    private static final String ARTIST_PREFIX = "artist/";
+    // 可播放项的ID由所在列表的ID和歌曲ID组成，播放时以所在列表作为队列
+    private static final char SONG_SEPARATOR = '|';
+    // 客户端不分页时最多返回的项数，避免超出Binder事务的大小限制
+    private static final int MAX_UNPAGED_ITEMS = 500;
+
+    /**
+     * 可播放项解析完成的回调，songs为所在列表，index为该项的位置
+     */
+    interface PlayableCallback {
+        void onResolved(List<Song> songs, int index);
+    }
+
+    private final Context context;
+    private final MusicRepository repository;
+    private final AlbumArtLoader albumArtLoader;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable ->
+            new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "media-catalog"));
+    // 服务销毁后置位，之后不再向目录线程提交任务
+    private volatile boolean released;
+
+    MediaCatalog(Context context, MusicRepository repository, AlbumArtLoader albumArtLoader) {
+        this.context = context;
+        this.repository = repository;
+        this.albumArtLoader = albumArtLoader;
+    }
+
+    /**
+     * 异步加载某个节点的子项，曲库加载完成后才开始
+     */
+    void loadChildren(String parentId, Bundle options,
+                      MediaBrowserServiceCompat.Result<List<MediaBrowserCompat.MediaItem>> result) {
+        result.detach();
+        // 曲库加载完成前服务可能已经销毁，此时直接回复null，不再排队
+        repository.runWhenLoaded(() -> submit(() -> result.sendResult(children(parentId, options)),
+                () -> result.sendResult(null)));
+    }
+
+    /**
+     * 异步解析可播放项所在的列表和位置，找不到时不回调
+     */
+    void resolvePlayable(String mediaId, PlayableCallback callback) {
+        int separator = mediaId.lastIndexOf(SONG_SEPARATOR);
+        if (separator < 0) {
+            return;
+        }
+        String parentId = mediaId.substring(0, separator);
+        long songId;
+        try {
+            songId = Long.parseLong(mediaId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        repository.runWhenLoaded(() -> submit(() -> {
+            if (SONGS_ID.equals(parentId)) {
+                // 全部歌曲直接按ID索引定位行号，把歌曲表的只读视图交给播放服务，不扫描也不复制
+                SongTable table = repository.getSongTable();
+                int row = table.rowOf(songId);
+                if (row >= 0) {
+                    callback.onResolved(table.asList(), row);
+                }
+                return;
+            }
+            List<Song> songs = songsOf(parentId);
+            if (songs == null) {
+                return;
+            }
+            // 专辑和收藏都很短，逐项查找即可
+            for (int i = 0; i < songs.size(); i++) {
+                if (songs.get(i).getId() == songId) {
+                    callback.onResolved(songs, i);
+                    return;
+                }
+            }
+        }, () -> {
+            // 服务已销毁，不再播放
+        }));
+    }
+
+    /**
+     * 释放目录线程，还没有执行的任务改为执行其取消回调
+     */
+    void release() {
+        released = true;
+        for (Runnable pending : executor.shutdownNow()) {
+            ((CatalogTask) pending).cancel();
+        }
+    }
+
+    /**
+     * 在目录线程中执行task；目录已释放时不再排队，改为在当前线程执行onReleased
+     * <p>
+     * 曲库加载完成的回调可能在服务销毁之后才到达，此时线程池已经关闭，直接提交会抛出异常。
+     */
+    private void submit(Runnable task, Runnable onReleased) {
+        if (!released) {
+            try {
+                executor.execute(new CatalogTask(task, onReleased));
+                return;
+            } catch (RejectedExecutionException e) {
+                // 检查之后线程池才关闭，按已释放处理
+            }
+        }
+        onReleased.run();
+    }
+
+    /**
+     * 目录线程中的任务，带有未执行时的取消回调
+     */
+    private static final class CatalogTask implements Runnable {
+        private final Runnable task;
+        private final Runnable onCancelled;
+
+        CatalogTask(Runnable task, Runnable onCancelled) {
+            this.task = task;
+            this.onCancelled = onCancelled;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        void cancel() {
+            onCancelled.run();
+        }
+    }
+
+    /**
+     * 生成请求的那一页子项，未知的节点返回null
+     */
+    private List<MediaBrowserCompat.MediaItem> children(String parentId, Bundle options) {
+        if (ROOT_ID.equals(parentId)) {
+            List<MediaBrowserCompat.MediaItem> items = new ArrayList<>(4);
+            items.add(browsableItem(SONGS_ID, context.getString(R.string.songs), null, -1));
+            items.add(browsableItem(ALBUMS_ID, context.getString(R.string.albums), null, -1));
+            items.add(browsableItem(ARTISTS_ID, context.getString(R.string.artists), null, -1));
+            items.add(browsableItem(FAVORITES_ID, context.getString(R.string.favorites), null, -1));
+            return items;
+        }
+        LibraryIndex index = repository.getLibraryIndex();
+        if (ALBUMS_ID.equals(parentId)) {
+            List<LibraryIndex.Album> page = page(index.getAlbums(), options);
+            List<MediaBrowserCompat.MediaItem> items = new ArrayList<>(page.size());
+            for (LibraryIndex.Album album : page) {
+                items.add(albumItem(album));
+            }
+            return items;
+        }
+        if (ARTISTS_ID.equals(parentId)) {
+            List<LibraryIndex.Artist> page = page(index.getArtists(), options);
+            List<MediaBrowserCompat.MediaItem> items = new ArrayList<>(page.size());
+            for (LibraryIndex.Artist artist : page) {
+                long coverAlbumId = artist.getAlbumCount() > 0 ? artist.getAlbumIds()[0] : -1;
+                items.add(browsableItem(ARTIST_PREFIX + artist.getId(), artist.getName(),
+                        context.getString(R.string.song_count, artist.getTrackCount()), coverAlbumId));
+            }
+            return items;
+        }
+        if (parentId.startsWith(ARTIST_PREFIX)) {
+            // 歌手下列出其专辑
+            LibraryIndex.Artist artist = index.getArtist(parseId(parentId, ARTIST_PREFIX));
+            if (artist == null) {
+                return null;
+            }
+            long[] albumIds = artist.getAlbumIds();
+            List<MediaBrowserCompat.MediaItem> items = new ArrayList<>(albumIds.length);
+            for (long albumId : albumIds) {
+                LibraryIndex.Album album = index.getAlbum(albumId);
+                if (album != null) {
+                    items.add(albumItem(album));
+                }
+            }
+            return page(items, options);
+        }
+
+        List<Song> songs = songsOf(parentId);
+        if (songs == null) {
+            return null;
+        }
+        List<Song> page = page(songs, options);
+        List<MediaBrowserCompat.MediaItem> items = new ArrayList<>(page.size());
+        for (Song song : page) {
+            items.add(playableItem(parentId, song));
+        }
+        return items;
+    }
+
+    /**
+     * 可播放节点中的歌曲，未知的节点返回null
+     */
+    private List<Song> songsOf(String parentId) {
+        if (SONGS_ID.equals(parentId)) {
+            return allSongs();
+        }
+        if (FAVORITES_ID.equals(parentId)) {
+            // 界面的LiveData只有浏览客户端时可能没有观察者，直接从收藏存储解析
+            return repository.loadFavoriteSongs();
+        }
+        if (parentId.startsWith(ALBUM_PREFIX)) {
+            // 专辑中的歌曲已按曲目号排好
+            LibraryIndex.Album album = repository.getLibraryIndex().getAlbum(parseId(parentId, ALBUM_PREFIX));
+            return album != null ? repository.getSongsByIds(album.getSongIds()) : null;
+        }
+        return null;
+    }
+
+    /**
+     * 解析节点ID中的专辑或歌手ID，格式不对时返回-1
+     */
+    private static long parseId(String parentId, String prefix) {
+        try {
+            return Long.parseLong(parentId.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private List<Song> allSongs() {
+        return repository.getSongTable().asList();
+    }
+
+    /**
+     * 按客户端请求的页码截取，不分页时最多返回MAX_UNPAGED_ITEMS项
+     */
+    private static <T> List<T> page(List<T> list, Bundle options) {
+        int page = options != null ? options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1) : -1;
+        int pageSize = options != null ? options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1) : -1;
+        if (page < 0 || pageSize < 1) {
+            return list.subList(0, Math.min(list.size(), MAX_UNPAGED_ITEMS));
+        }
+        int from = (int) Math.min(list.size(), (long) page * pageSize);
+        int to = Math.min(list.size(), from + pageSize);
+        return list.subList(from, to);
+    }
+
+    private MediaBrowserCompat.MediaItem albumItem(LibraryIndex.Album album) {
+        return browsableItem(ALBUM_PREFIX + album.getId(), album.getTitle(), album.getArtist(), album.getId());
+    }
+
+    /**
+     * 可浏览的节点，coverAlbumId为-1时不带封面
+     */
+    private MediaBrowserCompat.MediaItem browsableItem(String mediaId, String title, String subtitle,
+                                                       long coverAlbumId) {
+        MediaDescriptionCompat.Builder builder = new MediaDescriptionCompat.Builder()
+                .setMediaId(mediaId)
+                .setTitle(title)
+                .setSubtitle(subtitle);
+        if (coverAlbumId >= 0 && !albumArtLoader.isMissing(coverAlbumId)) {
+            builder.setIconUri(AlbumArtProvider.uriFor(coverAlbumId));
+        }
+        return new MediaBrowserCompat.MediaItem(builder.build(), MediaBrowserCompat.MediaItem.FLAG_BROWSABLE);
+    }
+
+    private MediaBrowserCompat.MediaItem playableItem(String parentId, Song song) {
+        MediaDescriptionCompat.Builder builder = new MediaDescriptionCompat.Builder()
+                .setMediaId(parentId + SONG_SEPARATOR + song.getId())
+                .setTitle(song.getTitle())
+                .setSubtitle(song.getArtist())
+                .setDescription(song.getAlbum());
+        if (!albumArtLoader.isMissing(song.getAlbumId())) {
+            builder.setIconUri(AlbumArtProvider.uriFor(song.getAlbumId()));
+        }
+        return new MediaBrowserCompat.MediaItem(builder.build(), MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
+    }
+}
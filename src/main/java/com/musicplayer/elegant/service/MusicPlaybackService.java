@@ -1,8 +1,5 @@
 package com.musicplayer.elegant.service;
 
-import android.app.Notification;
-import android.app.PendingIntent;
-import android.app.Service;
 import android.content.Intent;
 import android.media.AudioAttributes;
 import android.media.AudioFocusRequest;
@@ -10,39 +7,84 @@ import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.session.MediaSessionCompat;
-import android.support.v4.media.session.PlaybackStateCompat;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.app.NotificationCompat;
+import androidx.media.MediaBrowserServiceCompat;
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.MediaItem;
 import com.google.android.exoplayer2.Player;
-import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
 import com.musicplayer.elegant.MusicPlayerApplication;
-import com.musicplayer.elegant.R;
+import com.musicplayer.elegant.data.MusicRepository;
+import com.musicplayer.elegant.data.PlayHistoryRecorder;
+import com.musicplayer.elegant.data.SongRowList;
+import com.musicplayer.elegant.data.SongTable;
+import com.musicplayer.elegant.model.PlaybackPosition;
 import com.musicplayer.elegant.model.Song;
-import com.musicplayer.elegant.ui.MainActivity;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
- * 音乐播放服务，负责后台播放音乐
+ * 音乐播放服务，负责后台播放音乐，并向外部客户端提供可浏览的媒体目录
+ * <p>
+ * 播放器运行在专用的播放线程中，不与界面争抢主线程。公开方法可以在任意线程调用，
+ * 修改状态的方法被投递到播放线程执行，读取状态的方法返回缓存的值。
  */
-public class MusicPlaybackService extends Service implements AudioManager.OnAudioFocusChangeListener {
+public class MusicPlaybackService extends MediaBrowserServiceCompat implements AudioManager.OnAudioFocusChangeListener {
 
     private final IBinder binder = new MusicBinder();
+    // 播放线程，播放器、队列和以下的可变状态只在该线程中访问
+    private HandlerThread playbackThread;
+    private Handler playbackHandler;
     private ExoPlayer exoPlayer;
     private MediaSessionCompat mediaSession;
+    private NowPlayingPublisher nowPlayingPublisher;
+    private MediaCatalog mediaCatalog;
+    private BrowserClientValidator browserClientValidator;
     private AudioManager audioManager;
     private AudioFocusRequest audioFocusRequest;
     
-    private List<Song> playlist = new ArrayList<>();
-    private int currentSongIndex = -1;
-    private boolean isPlaying = false;
+    // 播放队列，正在播放的一项以条目ID跟踪，队列编辑后仍然有效
+    private final PlayQueue queue = new PlayQueue();
+    private int currentEntryId = -1;
+    // 当前歌曲的缓存，供其他线程读取
+    private volatile Song currentSong;
+    
+    // 预加载窗口：ExoPlayer中的每个媒体项对应的队列条目ID，第0项为当前歌曲
+    private static final int PRELOAD_COUNT = 2;
+    private final List<Integer> windowEntryIds = new ArrayList<>();
+    private volatile boolean isPlaying = false;
+    
+    // 播放记录
+    private PlayHistoryRecorder playHistoryRecorder;
+    private long recordingSongId = -1;      // 正在记录的歌曲ID
+    private long recordingStartedAt;        // 开始播放的时间
+    private long recordingListenedMs;       // 已累计的收听时长
+    private long recordingResumedAt = -1;   // 最近一次开始/恢复播放的时间（elapsedRealtime）
+    
+    // 切歌延迟统计
+    private final SkipLatencyTracker latencyTracker = new SkipLatencyTracker();
+    
+    // 最近一次发布的进度锚点
+    private volatile PlaybackPosition playbackPosition = PlaybackPosition.IDLE;
     
     // 播放模式
     public enum PlayMode {
@@ -52,49 +94,149 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
         SHUFFLE     // 随机播放
     }
     
-    private PlayMode currentPlayMode = PlayMode.NORMAL;
+    private volatile PlayMode currentPlayMode = PlayMode.NORMAL;
+    
+    // 随机播放顺序，只在随机播放模式下维护
+    private final ShuffleEngine shuffleEngine = new ShuffleEngine();
     
-    // 播放状态监听器
+    // 播放会话的保存与恢复，状态变化后合并保存
+    private static final long SESSION_SAVE_DELAY_MS = 500;
+    // 连续播放时定期保存进度，进程被杀后最多丢失这段时间的进度
+    private static final long SESSION_SAVE_INTERVAL_MS = 15_000;
+    private PlaybackSessionStore sessionStore;
+    private boolean sessionRestorePending;
+    // 队列、随机顺序或播放模式在上次完整保存之后有变化，下次保存需要重写队列文件
+    private boolean sessionQueueDirty;
+    private final Runnable saveSessionRunnable = this::saveSession;
+    private final Runnable periodicSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveSession();
+            if (exoPlayer != null && exoPlayer.isPlaying()) {
+                playbackHandler.postDelayed(this, SESSION_SAVE_INTERVAL_MS);
+            }
+        }
+    };
+    
+    // 播放状态监听器，订阅者只需覆盖关心的事件
     public interface PlaybackListener {
-        void onPlaybackStateChanged(boolean isPlaying);
-        void onSongChanged(Song song);
-        void onPlaylistChanged(List<Song> playlist);
+        default void onPlaybackStateChanged(boolean isPlaying) {}
+        default void onSongChanged(Song song) {}
+        default void onQueueChanged(QueueDelta delta) {}
+        default void onPositionChanged(PlaybackPosition position) {}
+    }
+    
+    // 订阅者及其回调所在的执行器
+    private static final class Subscriber {
+        final PlaybackListener listener;
+        final Executor executor;
+
+        Subscriber(PlaybackListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+    
+    // 一次待分发的事件
+    private interface PlaybackEvent {
+        void deliverTo(PlaybackListener listener);
     }
     
-    private PlaybackListener playbackListener;
+    // 写时复制，分发时无需加锁，订阅和取消订阅可以在任意线程进行
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
 
     @Override
     public void onCreate() {
         super.onCreate();
         
-        // 初始化ExoPlayer
-        initializePlayer();
+        MusicPlayerApplication application = (MusicPlayerApplication) getApplication();
+        playHistoryRecorder = application.getMusicRepository().getPlayHistoryRecorder();
+        mediaCatalog = new MediaCatalog(this, application.getMusicRepository(), application.getAlbumArtLoader());
+        browserClientValidator = new BrowserClientValidator(this);
         
-        // 初始化MediaSession
+        // 启动播放线程，音频相关的工作优先于界面以外的后台任务
+        playbackThread = new HandlerThread("playback", Process.THREAD_PRIORITY_AUDIO);
+        playbackThread.start();
+        playbackHandler = new Handler(playbackThread.getLooper());
+        
+        // 初始化MediaSession，通知和会话状态由发布器合并更新
         initializeMediaSession();
+        nowPlayingPublisher = new NowPlayingPublisher(this, mediaSession, playbackHandler, latencyTracker);
         
         // 初始化音频焦点管理
         initializeAudioFocus();
+        
+        // 在播放线程中初始化ExoPlayer，并恢复上次的播放会话
+        sessionStore = new PlaybackSessionStore(this);
+        playbackHandler.post(() -> {
+            initializePlayer();
+            restoreSession();
+        });
     }
 
     private void initializePlayer() {
-        exoPlayer = new SimpleExoPlayer.Builder(this).build();
+        // 播放器的回调都在播放线程中执行
+        exoPlayer = new ExoPlayer.Builder(this)
+                .setLooper(playbackThread.getLooper())
+                .build();
         exoPlayer.addListener(new Player.Listener() {
             @Override
             public void onPlaybackStateChanged(int state) {
-                if (state == Player.STATE_ENDED) {
+                if (state == Player.STATE_READY) {
+                    latencyTracker.onReady();
+                } else if (state == Player.STATE_ENDED) {
                     // 播放结束，根据播放模式处理
                     handlePlaybackCompletion();
                 }
             }
+
+            @Override
+            public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
+                if (reason == Player.MEDIA_ITEM_TRANSITION_REASON_REPEAT) {
+                    // 单曲循环重新开始，记为一次新的播放
+                    Song song = getCurrentSong();
+                    if (song != null) {
+                        beginPlayRecord(song);
+                    }
+                } else if (reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO
+                        || reason == Player.MEDIA_ITEM_TRANSITION_REASON_SEEK) {
+                    // 切换到了窗口中预加载的歌曲
+                    advanceWindow();
+                }
+            }
+
+            @Override
+            public void onEvents(Player player, Player.Events events) {
+                // 只在进度不再连续时发布新的锚点，其余时间由界面自行推算
+                if (events.containsAny(
+                        Player.EVENT_IS_PLAYING_CHANGED,
+                        Player.EVENT_POSITION_DISCONTINUITY,
+                        Player.EVENT_PLAYBACK_PARAMETERS_CHANGED,
+                        Player.EVENT_MEDIA_ITEM_TRANSITION,
+                        Player.EVENT_TIMELINE_CHANGED)) {
+                    publishPosition();
+                }
+                if (events.contains(Player.EVENT_IS_PLAYING_CHANGED)) {
+                    onIsPlayingChangedForSession(player.isPlaying());
+                }
+            }
+        });
+        exoPlayer.addAnalyticsListener(new AnalyticsListener() {
+            @Override
+            public void onAudioPositionAdvancing(EventTime eventTime, long playoutStartSystemTimeMs) {
+                // 音频开始实际输出
+                latencyTracker.onAudioStarted();
+            }
         });
     }
 
     private void initializeMediaSession() {
         mediaSession = new MediaSessionCompat(this, "MusicPlaybackService");
         mediaSession.setActive(true);
+        // 外部客户端通过该令牌控制播放
+        setSessionToken(mediaSession.getSessionToken());
         
-        // 设置媒体会话回调
+        // 设置媒体会话回调，在播放线程中执行
         mediaSession.setCallback(new MediaSessionCompat.Callback() {
             @Override
             public void onPlay() {
@@ -115,7 +257,18 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
             public void onSkipToPrevious() {
                 playPrevious();
             }
-        });
+
+            @Override
+            public void onPlayFromMediaId(String mediaId, Bundle extras) {
+                // 以该项所在的列表作为播放队列
+                mediaCatalog.resolvePlayable(mediaId, MusicPlaybackService.this::setPlaylist);
+            }
+
+            @Override
+            public void onSeekTo(long position) {
+                seekTo(position);
+            }
+        }, playbackHandler);
     }
 
     private void initializeAudioFocus() {
@@ -129,121 +282,381 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
             
             audioFocusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
                     .setAudioAttributes(audioAttributes)
-                    .setOnAudioFocusChangeListener(this)
+                    .setOnAudioFocusChangeListener(this, playbackHandler)
                     .build();
         }
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        // 启动前台服务
-        startForeground(1, createNotification());
-        return START_NOT_STICKY;
+        // 前台状态由NowPlayingPublisher在开始播放时进入、暂停或停止时退出
+        // 被系统杀死后自动重启，并从保存的会话恢复
+        return START_STICKY;
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
+        if (SERVICE_INTERFACE.equals(intent.getAction())) {
+            // 外部客户端浏览媒体目录
+            return super.onBind(intent);
+        }
         return binder;
     }
 
-    /**
-     * 创建前台服务通知
-     */
-    private Notification createNotification() {
-        // 创建打开主活动的PendingIntent
-        Intent notificationIntent = new Intent(this, MainActivity.class);
-        PendingIntent pendingIntent = PendingIntent.getActivity(
-                this, 0, notificationIntent, PendingIntent.FLAG_IMMUTABLE);
-        
-        // 获取当前播放的歌曲信息
-        String title = "未播放";
-        String artist = "";
-        if (currentSongIndex >= 0 && currentSongIndex < playlist.size()) {
-            Song currentSong = playlist.get(currentSongIndex);
-            title = currentSong.getTitle();
-            artist = currentSong.getArtist();
+    @Nullable
+    @Override
+    public BrowserRoot onGetRoot(@NonNull String clientPackageName, int clientUid, @Nullable Bundle rootHints) {
+        // 服务对外导出，只有校验通过的客户端才能浏览曲库，其他客户端直接拒绝连接
+        if (!browserClientValidator.isAllowed(clientPackageName, clientUid)) {
+            return null;
         }
-        
-        // 构建通知
-        return new NotificationCompat.Builder(this, MusicPlayerApplication.CHANNEL_ID)
-                .setContentTitle(title)
-                .setContentText(artist)
-                .setSmallIcon(R.drawable.ic_music_note)
-                .setContentIntent(pendingIntent)
-                .setOngoing(true)
-                .build();
+        return new BrowserRoot(MediaCatalog.ROOT_ID, null);
+    }
+
+    @Override
+    public void onLoadChildren(@NonNull String parentId,
+                               @NonNull Result<List<MediaBrowserCompat.MediaItem>> result) {
+        mediaCatalog.loadChildren(parentId, null, result);
+    }
+
+    @Override
+    public void onLoadChildren(@NonNull String parentId,
+                               @NonNull Result<List<MediaBrowserCompat.MediaItem>> result,
+                               @NonNull Bundle options) {
+        // 客户端分页加载时只生成请求的那一页
+        mediaCatalog.loadChildren(parentId, options, result);
     }
 
     /**
      * 设置播放列表
      */
     public void setPlaylist(List<Song> songs, int startIndex) {
-        playlist.clear();
-        playlist.addAll(songs);
-        
-        if (playbackListener != null) {
-            playbackListener.onPlaylistChanged(playlist);
+        List<Song> snapshot = snapshotOf(songs);
+        if (postIfNotOnPlaybackThread(() -> setPlaylist(snapshot, startIndex))) {
+            return;
+        }
+        latencyTracker.onSkipRequested();
+        // 用户开始了新的播放，不再恢复旧会话
+        sessionRestorePending = false;
+        queue.reset(snapshot);
+        // 旧队列的条目ID全部失效
+        setCurrentEntry(-1);
+        windowEntryIds.clear();
+        if (currentPlayMode == PlayMode.SHUFFLE) {
+            // 以起始歌曲为起点生成新的随机顺序
+            int startEntryId = startIndex >= 0 && startIndex < queue.size() ? queue.entryIdAt(startIndex) : -1;
+            reshuffle(startEntryId);
         }
         
-        if (startIndex >= 0 && startIndex < playlist.size()) {
+        dispatch(listener -> listener.onQueueChanged(QueueDelta.reset(snapshot)));
+        scheduleQueueSave();
+        
+        if (startIndex >= 0 && startIndex < queue.size()) {
             playSong(startIndex);
         }
     }
 
     /**
-     * 播放指定索引的歌曲
+     * 播放队列中指定位置的歌曲
      */
     public void playSong(int index) {
-        if (index >= 0 && index < playlist.size()) {
-            currentSongIndex = index;
-            Song song = playlist.get(index);
-            
-            // 请求音频焦点
-            int result;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                result = audioManager.requestAudioFocus(audioFocusRequest);
-            } else {
-                result = audioManager.requestAudioFocus(this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
-            }
-            
-            if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-                // 准备并播放音乐
-                exoPlayer.setMediaItem(MediaItem.fromUri(Uri.parse(song.getPath())));
+        if (postIfNotOnPlaybackThread(() -> playSong(index))) {
+            return;
+        }
+        if (index >= 0 && index < queue.size()) {
+            if (requestAudioFocus() == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+                // 装载当前歌曲以及之后的预加载窗口
+                int entryId = queue.entryIdAt(index);
+                loadWindow(entryId);
                 exoPlayer.prepare();
                 exoPlayer.play();
-                isPlaying = true;
-                
-                // 更新媒体会话状态
-                updatePlaybackState();
-                
-                // 更新通知
-                startForeground(1, createNotification());
-                
-                // 通知监听器
-                if (playbackListener != null) {
-                    playbackListener.onSongChanged(song);
-                    playbackListener.onPlaybackStateChanged(true);
+                onTrackStarted(entryId);
+            }
+        }
+    }
+
+    /**
+     * 插入到当前歌曲之后，作为下一首播放
+     */
+    public void playAfterCurrent(List<Song> songs) {
+        List<Song> inserted = snapshotOf(songs);
+        if (postIfNotOnPlaybackThread(() -> playAfterCurrent(inserted))) {
+            return;
+        }
+        insertIntoQueue(getCurrentQueuePosition() + 1, inserted);
+    }
+
+    /**
+     * 添加到队列末尾
+     */
+    public void addToQueue(List<Song> songs) {
+        List<Song> inserted = snapshotOf(songs);
+        if (postIfNotOnPlaybackThread(() -> addToQueue(inserted))) {
+            return;
+        }
+        insertIntoQueue(queue.size(), inserted);
+    }
+
+    /**
+     * 调用方列表的快照
+     * <p>
+     * 歌曲表的列表视图不可变，直接使用，队列中只保存行号；其他列表先复制一份再交给播放线程。
+     */
+    private static List<Song> snapshotOf(List<Song> songs) {
+        return SongTable.tableOf(songs) != null ? songs : new ArrayList<>(songs);
+    }
+
+    /**
+     * 插入歌曲，inserted已是调用方列表的快照
+     */
+    private void insertIntoQueue(int position, List<Song> inserted) {
+        if (inserted.isEmpty()) {
+            return;
+        }
+        int firstEntryId = queue.insert(position, inserted);
+        if (currentPlayMode == PlayMode.SHUFFLE) {
+            // 插入到尚未播放的部分，不需要重新洗牌
+            for (int i = 0; i < inserted.size(); i++) {
+                int entryId = firstEntryId + i;
+                shuffleEngine.insert(entryId, queue.getArtistIdByEntryId(entryId), currentEntryId);
+            }
+        }
+        dispatch(listener -> listener.onQueueChanged(QueueDelta.insert(position, inserted)));
+        scheduleQueueSave();
+        // 预加载的后续歌曲可能已经改变
+        refreshWindow();
+    }
+
+    /**
+     * 移动队列中的一项，to是移动完成后该项所在的位置
+     */
+    public void moveQueueItem(int from, int to) {
+        if (postIfNotOnPlaybackThread(() -> moveQueueItem(from, to))) {
+            return;
+        }
+        if (from == to || from < 0 || to < 0 || from >= queue.size() || to >= queue.size()) {
+            return;
+        }
+        queue.move(from, to);
+        dispatch(listener -> listener.onQueueChanged(QueueDelta.move(from, to)));
+        scheduleQueueSave();
+        refreshWindow();
+    }
+
+    /**
+     * 从队列中移除一项，移除的是当前歌曲时播放原位置上的下一首
+     */
+    public void removeFromQueue(int position) {
+        if (postIfNotOnPlaybackThread(() -> removeFromQueue(position))) {
+            return;
+        }
+        if (position < 0 || position >= queue.size()) {
+            return;
+        }
+        int removedEntryId = queue.entryIdAt(position);
+        boolean removingCurrent = removedEntryId == currentEntryId;
+        // 随机播放时，移除当前歌曲后接着播放随机顺序中的下一首
+        int successorEntryId = removingCurrent && currentPlayMode == PlayMode.SHUFFLE
+                ? shuffleEngine.nextAfter(removedEntryId) : -1;
+        queue.remove(position, 1);
+        shuffleEngine.remove(removedEntryId);
+        if (successorEntryId == removedEntryId || !queue.contains(successorEntryId)) {
+            successorEntryId = -1;
+        }
+        dispatch(listener -> listener.onQueueChanged(QueueDelta.remove(position, 1)));
+        scheduleQueueSave();
+        
+        if (!removingCurrent) {
+            refreshWindow();
+            return;
+        }
+        setCurrentEntry(-1);
+        windowEntryIds.clear();
+        if (queue.isEmpty()) {
+            // 队列已空，停止播放
+            exoPlayer.stop();
+            exoPlayer.clearMediaItems();
+            isPlaying = false;
+            finishPlayRecord();
+            updatePlaybackState();
+            dispatch(listener -> {
+                listener.onSongChanged(null);
+                listener.onPlaybackStateChanged(false);
+            });
+        } else if (isPlaying) {
+            playSong(successorEntryId >= 0
+                    ? queue.positionOf(successorEntryId) : Math.min(position, queue.size() - 1));
+        } else {
+            // 暂停状态下只装载，不开始播放
+            int entryId = successorEntryId >= 0
+                    ? successorEntryId : queue.entryIdAt(Math.min(position, queue.size() - 1));
+            loadWindow(entryId);
+            exoPlayer.prepare();
+            setCurrentEntry(entryId);
+            Song song = currentSong;
+            dispatch(listener -> listener.onSongChanged(song));
+        }
+    }
+
+    /**
+     * 当前歌曲在队列中的位置，没有正在播放的歌曲时返回-1
+     */
+    private int getCurrentQueuePosition() {
+        return queue.positionOf(currentEntryId);
+    }
+
+    /**
+     * 切换当前条目，同时更新供其他线程读取的缓存
+     */
+    private void setCurrentEntry(int entryId) {
+        currentEntryId = entryId;
+        currentSong = queue.getByEntryId(entryId);
+    }
+
+    /**
+     * 不在播放线程时把任务投递过去并返回true，调用方随即返回；已在播放线程时直接执行
+     */
+    private boolean postIfNotOnPlaybackThread(Runnable task) {
+        if (Looper.myLooper() == playbackThread.getLooper()) {
+            return false;
+        }
+        playbackHandler.post(task);
+        return true;
+    }
+
+    /**
+     * 一首歌开始播放后更新状态并通知外部
+     */
+    private void onTrackStarted(int entryId) {
+        setCurrentEntry(entryId);
+        Song song = currentSong;
+        isPlaying = true;
+        beginPlayRecord(song);
+        
+        // 更新媒体会话状态和通知
+        updatePlaybackState();
+        
+        // 通知监听器
+        dispatch(listener -> {
+            listener.onSongChanged(song);
+            listener.onPlaybackStateChanged(true);
+        });
+    }
+
+    /**
+     * 请求音频焦点
+     */
+    private int requestAudioFocus() {
+        long start = latencyTracker.now();
+        int result;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            result = audioManager.requestAudioFocus(audioFocusRequest);
+        } else {
+            result = audioManager.requestAudioFocus(this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
+        }
+        latencyTracker.record(SkipLatencyTracker.Phase.FOCUS, start);
+        return result;
+    }
+
+    /**
+     * 以指定歌曲为起点重新装载预加载窗口
+     */
+    private void loadWindow(int entryId) {
+        latencyTracker.onPrepareStarted();
+        windowEntryIds.clear();
+        windowEntryIds.add(entryId);
+        exoPlayer.setMediaItem(createMediaItem(queue.getByEntryId(entryId)));
+        topUpWindow();
+    }
+
+    /**
+     * 按播放模式补齐窗口中后续的歌曲，ExoPlayer会提前缓冲和解码，实现无缝切换
+     */
+    private void topUpWindow() {
+        if (currentPlayMode == PlayMode.REPEAT_ONE) {
+            // 单曲循环交给ExoPlayer处理，不需要预加载其他歌曲
+            exoPlayer.setRepeatMode(Player.REPEAT_MODE_ONE);
+            return;
+        }
+        exoPlayer.setRepeatMode(Player.REPEAT_MODE_OFF);
+        while (windowEntryIds.size() < 1 + PRELOAD_COUNT) {
+            int nextEntryId = resolveNextEntryId(windowEntryIds.get(windowEntryIds.size() - 1));
+            windowEntryIds.add(nextEntryId);
+            exoPlayer.addMediaItem(createMediaItem(queue.getByEntryId(nextEntryId)));
+        }
+    }
+
+    /**
+     * 队列或播放模式变化后校正窗口中当前歌曲之后的部分
+     * <p>
+     * 按新的状态重新推算后续的条目并与窗口逐项比较，只替换第一个不同的条目及其之后的项，
+     * 仍然正确的项保留在ExoPlayer中，已经缓冲的数据不会被丢弃。
+     */
+    private void refreshWindow() {
+        if (windowEntryIds.isEmpty()) {
+            return;
+        }
+        int keep = 1;
+        if (currentPlayMode != PlayMode.REPEAT_ONE) {
+            int previousEntryId = windowEntryIds.get(0);
+            while (keep < windowEntryIds.size()) {
+                int nextEntryId = resolveNextEntryId(previousEntryId);
+                if (windowEntryIds.get(keep) != nextEntryId) {
+                    break;
                 }
+                previousEntryId = nextEntryId;
+                keep++;
             }
         }
+        int size = windowEntryIds.size();
+        if (keep < size) {
+            exoPlayer.removeMediaItems(keep, size);
+            windowEntryIds.subList(keep, size).clear();
+        }
+        topUpWindow();
+    }
+
+    /**
+     * ExoPlayer切换到窗口中的下一项后，移除已播放的项并补齐窗口
+     */
+    private void advanceWindow() {
+        int position = exoPlayer.getCurrentMediaItemIndex();
+        if (position <= 0 || position >= windowEntryIds.size()) {
+            return;
+        }
+        int entryId = windowEntryIds.get(position);
+        exoPlayer.removeMediaItems(0, position);
+        windowEntryIds.subList(0, position).clear();
+        topUpWindow();
+        onTrackStarted(entryId);
+    }
+
+    private MediaItem createMediaItem(Song song) {
+        return new MediaItem.Builder()
+                .setMediaId(String.valueOf(song.getId()))
+                .setUri(Uri.parse(song.getPath()))
+                .build();
     }
 
     /**
      * 暂停播放
      */
     public void pause() {
+        if (postIfNotOnPlaybackThread(this::pause)) {
+            return;
+        }
         if (exoPlayer.isPlaying()) {
             exoPlayer.pause();
             isPlaying = false;
+            latencyTracker.cancelSkip();
+            pausePlayRecord();
             
             // 更新媒体会话状态
             updatePlaybackState();
             
             // 通知监听器
-            if (playbackListener != null) {
-                playbackListener.onPlaybackStateChanged(false);
-            }
+            dispatch(listener -> listener.onPlaybackStateChanged(false));
         }
     }
 
@@ -251,26 +664,21 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
      * 恢复播放
      */
     public void resume() {
+        if (postIfNotOnPlaybackThread(this::resume)) {
+            return;
+        }
         if (!exoPlayer.isPlaying()) {
             // 请求音频焦点
-            int result;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                result = audioManager.requestAudioFocus(audioFocusRequest);
-            } else {
-                result = audioManager.requestAudioFocus(this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
-            }
-            
-            if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+            if (requestAudioFocus() == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
                 exoPlayer.play();
                 isPlaying = true;
+                resumePlayRecord();
                 
                 // 更新媒体会话状态
                 updatePlaybackState();
                 
                 // 通知监听器
-                if (playbackListener != null) {
-                    playbackListener.onPlaybackStateChanged(true);
-                }
+                dispatch(listener -> listener.onPlaybackStateChanged(true));
             }
         }
     }
@@ -279,40 +687,69 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
      * 播放下一首
      */
     public void playNext() {
-        if (playlist.isEmpty()) return;
+        if (postIfNotOnPlaybackThread(this::playNext)) {
+            return;
+        }
+        if (queue.isEmpty()) return;
+        latencyTracker.onSkipRequested();
+        
+        if (currentPlayMode != PlayMode.REPEAT_ONE && windowEntryIds.size() > 1) {
+            // 下一首已在预加载窗口中，直接切换以利用已缓冲的数据
+            if (requestAudioFocus() == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
+                latencyTracker.onPrepareStarted();
+                exoPlayer.seekToDefaultPosition(1);
+                exoPlayer.play();
+            }
+            return;
+        }
         
-        int nextIndex;
+        int nextEntryId = resolveNextEntryId(currentEntryId);
+        playSong(nextEntryId >= 0 ? queue.positionOf(nextEntryId) : 0);
+    }
+
+    /**
+     * 根据播放模式计算某一项之后应该播放的条目
+     */
+    private int resolveNextEntryId(int fromEntryId) {
+        if (currentPlayMode == PlayMode.SHUFFLE) {
+            // 随机播放模式下，沿预先生成的随机顺序前进
+            int nextEntryId = shuffleEngine.nextAfter(fromEntryId);
+            if (nextEntryId >= 0) {
+                return nextEntryId;
+            }
+        }
+        int fromIndex = queue.positionOf(fromEntryId);
+        return queue.entryIdAt(resolveNextIndex(Math.max(fromIndex, 0)));
+    }
+
+    /**
+     * 根据播放模式计算某首歌之后应该播放的歌曲
+     */
+    private int resolveNextIndex(int fromIndex) {
         switch (currentPlayMode) {
             case REPEAT_ONE:
                 // 单曲循环模式下，继续播放当前歌曲
-                nextIndex = currentSongIndex;
-                break;
-            case SHUFFLE:
-                // 随机播放模式下，随机选择一首歌曲
-                nextIndex = (int) (Math.random() * playlist.size());
-                break;
+                return fromIndex;
             case REPEAT_ALL:
                 // 列表循环模式下，播放下一首，如果是最后一首则回到第一首
-                nextIndex = (currentSongIndex + 1) % playlist.size();
-                break;
+                return (fromIndex + 1) % queue.size();
             case NORMAL:
             default:
-                // 顺序播放模式下，播放下一首，如果是最后一首则停止
-                nextIndex = currentSongIndex + 1;
-                if (nextIndex >= playlist.size()) {
-                    nextIndex = 0; // 循环回第一首
-                }
-                break;
+                // 顺序播放模式下，播放下一首，如果是最后一首则循环回第一首
+                int nextIndex = fromIndex + 1;
+                return nextIndex >= queue.size() ? 0 : nextIndex;
         }
-        
-        playSong(nextIndex);
     }
 
     /**
      * 播放上一首
      */
     public void playPrevious() {
-        if (playlist.isEmpty()) return;
+        if (postIfNotOnPlaybackThread(this::playPrevious)) {
+            return;
+        }
+        if (queue.isEmpty()) return;
+        latencyTracker.onSkipRequested();
         
         // 如果当前播放进度超过3秒，则重新播放当前歌曲
         if (exoPlayer.getCurrentPosition() > 3000) {
@@ -320,21 +757,23 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
             return;
         }
         
+        int currentIndex = getCurrentQueuePosition();
         int prevIndex;
         switch (currentPlayMode) {
             case REPEAT_ONE:
                 // 单曲循环模式下，继续播放当前歌曲
-                prevIndex = currentSongIndex;
+                prevIndex = Math.max(currentIndex, 0);
                 break;
             case SHUFFLE:
-                // 随机播放模式下，随机选择一首歌曲
-                prevIndex = (int) (Math.random() * playlist.size());
+                // 随机播放模式下，沿随机顺序后退，回到真正的上一首
+                int prevEntryId = shuffleEngine.previousBefore(currentEntryId);
+                prevIndex = prevEntryId >= 0 ? queue.positionOf(prevEntryId) : Math.max(currentIndex, 0);
                 break;
             case REPEAT_ALL:
             case NORMAL:
             default:
                 // 列表循环和顺序播放模式下，播放上一首，如果是第一首则跳到最后一首
-                prevIndex = (currentSongIndex - 1 + playlist.size()) % playlist.size();
+                prevIndex = (currentIndex - 1 + queue.size()) % queue.size();
                 break;
         }
         
@@ -345,7 +784,46 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
      * 设置播放模式
      */
     public void setPlayMode(PlayMode playMode) {
+        if (postIfNotOnPlaybackThread(() -> setPlayMode(playMode))) {
+            return;
+        }
+        if (playMode == PlayMode.SHUFFLE && currentPlayMode != PlayMode.SHUFFLE) {
+            // 进入随机播放时以当前歌曲为起点生成随机顺序
+            reshuffle(currentEntryId);
+        } else if (playMode != PlayMode.SHUFFLE) {
+            shuffleEngine.clear();
+        }
         currentPlayMode = playMode;
+        scheduleQueueSave();
+        // 预加载的歌曲可能不再符合新的播放模式
+        refreshWindow();
+    }
+
+    /**
+     * 设置随机播放时是否避免同一歌手的歌曲连续出现
+     */
+    public void setAvoidArtistClustering(boolean avoid) {
+        if (postIfNotOnPlaybackThread(() -> setAvoidArtistClustering(avoid))) {
+            return;
+        }
+        shuffleEngine.setAvoidArtistClustering(avoid);
+        if (currentPlayMode == PlayMode.SHUFFLE) {
+            reshuffle(currentEntryId);
+            refreshWindow();
+        }
+        scheduleQueueSave();
+    }
+
+    /**
+     * 以新的种子重新生成随机顺序，startEntryId排在第一位
+     */
+    private void reshuffle(int startEntryId) {
+        int[] entryIds = queue.toEntryIds();
+        long[] artistIds = new long[entryIds.length];
+        for (int i = 0; i < entryIds.length; i++) {
+            artistIds[i] = queue.getArtistIdByEntryId(entryIds[i]);
+        }
+        shuffleEngine.shuffle(entryIds, artistIds, startEntryId, System.nanoTime());
     }
 
     /**
@@ -359,10 +837,7 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
      * 获取当前播放的歌曲
      */
     public Song getCurrentSong() {
-        if (currentSongIndex >= 0 && currentSongIndex < playlist.size()) {
-            return playlist.get(currentSongIndex);
-        }
-        return null;
+        return currentSong;
     }
 
     /**
@@ -373,68 +848,313 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
     }
 
     /**
-     * 获取当前播放进度（毫秒）
+     * 获取当前播放进度（毫秒），由最近的进度锚点推算
      */
     public long getCurrentPosition() {
-        return exoPlayer.getCurrentPosition();
+        return playbackPosition.getPosition(SystemClock.elapsedRealtime());
     }
 
     /**
      * 获取当前歌曲总时长（毫秒）
      */
     public long getDuration() {
-        return exoPlayer.getDuration();
+        return playbackPosition.getDurationMs();
     }
 
     /**
      * 跳转到指定位置
      */
     public void seekTo(long position) {
+        if (postIfNotOnPlaybackThread(() -> seekTo(position))) {
+            return;
+        }
         exoPlayer.seekTo(position);
     }
 
     /**
-     * 设置播放状态监听器
+     * 获取最近一次发布的进度锚点
+     */
+    public PlaybackPosition getPlaybackPosition() {
+        return playbackPosition;
+    }
+
+    /**
+     * 以播放器当前状态生成新的进度锚点并通知外部
+     */
+    private void publishPosition() {
+        long duration = exoPlayer.getDuration();
+        if (duration == C.TIME_UNSET) {
+            // 尚未解析出时长时使用媒体库中的时长
+            Song song = getCurrentSong();
+            duration = song != null ? song.getDuration() : 0;
+        }
+        playbackPosition = new PlaybackPosition(
+                exoPlayer.getCurrentPosition(),
+                duration,
+                SystemClock.elapsedRealtime(),
+                exoPlayer.getPlaybackParameters().speed,
+                exoPlayer.isPlaying());
+        
+        updatePlaybackState();
+        PlaybackPosition position = playbackPosition;
+        dispatch(listener -> listener.onPositionChanged(position));
+        scheduleSessionSave();
+    }
+
+    /**
+     * 读取上次保存的会话，曲库可以按ID查询后恢复
+     * <p>
+     * 有数据库缓存时曲库只需读取缓存，不需要重新扫描MediaStore。
+     */
+    private void restoreSession() {
+        PlaybackSessionStore.Session session = sessionStore.read();
+        if (session == null || session.songIds.length == 0) {
+            return;
+        }
+        sessionRestorePending = true;
+        MusicRepository repository = ((MusicPlayerApplication) getApplication()).getMusicRepository();
+        repository.runWhenLoaded(() -> playbackHandler.post(() -> applySession(repository, session)));
+    }
+
+    private void applySession(MusicRepository repository, PlaybackSessionStore.Session session) {
+        if (!sessionRestorePending || exoPlayer == null) {
+            // 恢复之前用户已经开始了新的播放，或服务已经销毁
+            return;
+        }
+        sessionRestorePending = false;
+        
+        // 按ID查出歌曲表中的行号，记录每个旧位置对应的新位置，已删除的歌曲被跳过；
+        // 队列只引用行号，不为每首歌生成Song
+        SongTable table = repository.getSongTable();
+        SongRowList songs = new SongRowList(table, session.songIds.length);
+        int[] newPositions = new int[session.songIds.length];
+        for (int i = 0; i < session.songIds.length; i++) {
+            int row = table.rowOf(session.songIds[i]);
+            newPositions[i] = row >= 0 ? songs.size() : -1;
+            if (row >= 0) {
+                songs.addRow(row);
+            }
+        }
+        if (songs.isEmpty()) {
+            return;
+        }
+        // 有歌曲已被删除时，保存的队列文件和内存中的队列不再对应，下次保存需要重写
+        sessionQueueDirty = songs.size() != session.songIds.length;
+        int currentIndex = session.currentIndex >= 0 && session.currentIndex < newPositions.length
+                ? newPositions[session.currentIndex] : -1;
+        long positionMs = session.positionMs;
+        if (currentIndex < 0) {
+            // 上次播放的歌曲已被删除，从头开始
+            currentIndex = 0;
+            positionMs = 0;
+        }
+        
+        // 重建后的队列中条目ID与位置相同
+        queue.reset(songs);
+        PlayMode[] modes = PlayMode.values();
+        currentPlayMode = session.playMode >= 0 && session.playMode < modes.length
+                ? modes[session.playMode] : PlayMode.NORMAL;
+        shuffleEngine.setAvoidArtistClustering(session.avoidArtistClustering);
+        if (currentPlayMode == PlayMode.SHUFFLE) {
+            restoreShuffle(session, newPositions, queue.entryIdAt(currentIndex));
+        }
+        
+        // 装载但不自动播放
+        int entryId = queue.entryIdAt(currentIndex);
+        loadWindow(entryId);
+        exoPlayer.seekTo(0, positionMs);
+        exoPlayer.prepare();
+        setCurrentEntry(entryId);
+        updatePlaybackState();
+        
+        Song song = currentSong;
+        dispatch(listener -> {
+            listener.onQueueChanged(QueueDelta.reset(songs));
+            listener.onSongChanged(song);
+        });
+    }
+
+    /**
+     * 恢复保存的随机顺序，有歌曲缺失导致顺序不完整时重新洗牌
+     */
+    private void restoreShuffle(PlaybackSessionStore.Session session, int[] newPositions, int currentEntryId) {
+        int[] entryIds = queue.toEntryIds();
+        long[] artistIds = new long[entryIds.length];
+        for (int i = 0; i < entryIds.length; i++) {
+            artistIds[i] = queue.getArtistIdByEntryId(entryIds[i]);
+        }
+        int[] shuffled = new int[session.shuffleOrder.length];
+        int count = 0;
+        for (int oldPosition : session.shuffleOrder) {
+            if (oldPosition >= 0 && oldPosition < newPositions.length && newPositions[oldPosition] >= 0) {
+                shuffled[count++] = newPositions[oldPosition];
+            }
+        }
+        if (count == entryIds.length) {
+            shuffleEngine.restore(entryIds, artistIds, Arrays.copyOf(shuffled, count), session.shuffleSeed);
+        } else {
+            reshuffle(currentEntryId);
+            sessionQueueDirty = true;
+        }
+    }
+
+    private void scheduleSessionSave() {
+        playbackHandler.removeCallbacks(saveSessionRunnable);
+        playbackHandler.postDelayed(saveSessionRunnable, SESSION_SAVE_DELAY_MS);
+    }
+
+    /**
+     * 队列、随机顺序或播放模式变化后保存，下次保存会重写队列文件
+     */
+    private void scheduleQueueSave() {
+        sessionQueueDirty = true;
+        scheduleSessionSave();
+    }
+
+    /**
+     * 播放时定期保存会话；暂停或停止时立即保存一次并停止定期保存
+     * <p>
+     * onDestroy在进程被杀时不会执行，只靠状态变化时的保存，长时间连续播放后恢复的进度会停留在上次切歌或跳转的位置。
+     */
+    private void onIsPlayingChangedForSession(boolean playing) {
+        playbackHandler.removeCallbacks(periodicSaveRunnable);
+        if (playing) {
+            playbackHandler.postDelayed(periodicSaveRunnable, SESSION_SAVE_INTERVAL_MS);
+        } else {
+            saveSession();
+        }
+    }
+
+    /**
+     * 在播放线程中生成会话快照，交给存储线程写入
+     * <p>
+     * 队列没有变化时只写入当前位置和进度，不重写队列和随机顺序。
+     */
+    private void saveSession() {
+        playbackHandler.removeCallbacks(saveSessionRunnable);
+        if (sessionRestorePending || exoPlayer == null) {
+            // 旧会话尚未恢复，不能用空队列覆盖它
+            return;
+        }
+        if (!sessionQueueDirty) {
+            sessionStore.writePosition(getCurrentQueuePosition(), exoPlayer.getCurrentPosition());
+            return;
+        }
+        sessionQueueDirty = false;
+        long[] songIds = queue.toSongIds();
+        int[] shuffleOrder = new int[0];
+        if (currentPlayMode == PlayMode.SHUFFLE) {
+            // 条目ID在恢复后会重新分配，保存为队列位置
+            shuffleOrder = shuffleEngine.toEntryIds();
+            for (int i = 0; i < shuffleOrder.length; i++) {
+                shuffleOrder[i] = queue.positionOf(shuffleOrder[i]);
+            }
+        }
+        sessionStore.write(new PlaybackSessionStore.Session(
+                songIds,
+                getCurrentQueuePosition(),
+                exoPlayer.getCurrentPosition(),
+                currentPlayMode.ordinal(),
+                shuffleEngine.getSeed(),
+                shuffleEngine.isAvoidArtistClustering(),
+                shuffleOrder));
+    }
+
+    /**
+     * 订阅播放事件，回调在指定的执行器中执行
+     * <p>
+     * 订阅后先收到一次当前状态的完整快照，之后只收到增量。
+     */
+    public void addPlaybackListener(PlaybackListener listener, Executor executor) {
+        if (postIfNotOnPlaybackThread(() -> addPlaybackListener(listener, executor))) {
+            return;
+        }
+        subscribers.add(new Subscriber(listener, executor));
+        QueueDelta snapshot = QueueDelta.reset(queue.toList());
+        Song song = currentSong;
+        boolean playing = isPlaying;
+        PlaybackPosition position = playbackPosition;
+        executor.execute(() -> {
+            listener.onQueueChanged(snapshot);
+            listener.onSongChanged(song);
+            listener.onPlaybackStateChanged(playing);
+            listener.onPositionChanged(position);
+        });
+    }
+
+    /**
+     * 取消订阅播放事件
+     */
+    public void removePlaybackListener(PlaybackListener listener) {
+        // 与订阅按同样的顺序执行，避免先取消后订阅
+        if (postIfNotOnPlaybackThread(() -> removePlaybackListener(listener))) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.listener == listener) {
+                subscribers.remove(subscriber);
+            }
+        }
+    }
+
+    /**
+     * 把事件分发给所有订阅者
      */
-    public void setPlaybackListener(PlaybackListener listener) {
-        this.playbackListener = listener;
+    private void dispatch(PlaybackEvent event) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.executor.execute(() -> event.deliverTo(subscriber.listener));
+        }
     }
 
     /**
-     * 处理播放完成事件
+     * 处理播放完成事件，只有预加载窗口中的歌曲全部播放完毕时才会发生
      */
     private void handlePlaybackCompletion() {
-        switch (currentPlayMode) {
-            case REPEAT_ONE:
-                // 单曲循环，重新播放当前歌曲
-                exoPlayer.seekTo(0);
-                exoPlayer.play();
-                break;
-            case NORMAL:
-            case REPEAT_ALL:
-            case SHUFFLE:
-                // 其他模式，播放下一首
-                playNext();
-                break;
+        playNext();
+    }
+
+    /**
+     * 结束上一首歌的记录并开始记录新的一首
+     */
+    private void beginPlayRecord(Song song) {
+        finishPlayRecord();
+        recordingSongId = song.getId();
+        recordingStartedAt = System.currentTimeMillis();
+        recordingListenedMs = 0;
+        recordingResumedAt = SystemClock.elapsedRealtime();
+    }
+
+    private void pausePlayRecord() {
+        if (recordingResumedAt >= 0) {
+            recordingListenedMs += SystemClock.elapsedRealtime() - recordingResumedAt;
+            recordingResumedAt = -1;
+        }
+    }
+
+    private void resumePlayRecord() {
+        if (recordingSongId >= 0 && recordingResumedAt < 0) {
+            recordingResumedAt = SystemClock.elapsedRealtime();
         }
     }
 
     /**
-     * 更新媒体会话播放状态
+     * 把当前歌曲的播放投递给记录器，写入在记录器自己的线程中完成
+     */
+    private void finishPlayRecord() {
+        if (recordingSongId < 0) {
+            return;
+        }
+        pausePlayRecord();
+        playHistoryRecorder.record(recordingSongId, recordingStartedAt, recordingListenedMs);
+        recordingSongId = -1;
+    }
+
+    /**
+     * 更新媒体会话播放状态和通知，只有变化的部分会被发布
      */
     private void updatePlaybackState() {
-        PlaybackStateCompat.Builder stateBuilder = new PlaybackStateCompat.Builder()
-                .setActions(PlaybackStateCompat.ACTION_PLAY |
-                        PlaybackStateCompat.ACTION_PAUSE |
-                        PlaybackStateCompat.ACTION_SKIP_TO_NEXT |
-                        PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS)
-                .setState(
-                        isPlaying ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED,
-                        exoPlayer.getCurrentPosition(),
-                        1.0f
-                );
-        
-        mediaSession.setPlaybackState(stateBuilder.build());
+        nowPlayingPublisher.update(currentSong, isPlaying,
+                exoPlayer.getCurrentPosition(), exoPlayer.getPlaybackParameters().speed);
     }
 
     @Override
@@ -455,20 +1175,48 @@ public class MusicPlaybackService extends Service implements AudioManager.OnAudi
         }
     }
 
+    /**
+     * 获取切歌延迟统计，用于调试
+     */
+    public SkipLatencyTracker getSkipLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * adb shell dumpsys activity service MusicPlaybackService 时输出延迟统计
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        latencyTracker.dump(writer);
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
+        mediaCatalog.release();
         
-        // 释放ExoPlayer资源
-        if (exoPlayer != null) {
-            exoPlayer.release();
-            exoPlayer = null;
-        }
-        
-        // 释放MediaSession资源
-        if (mediaSession != null) {
+        // 在播放线程中完成收尾，之前已投递的操作先执行完
+        playbackHandler.post(() -> {
+            // 保存播放会话，写入在存储线程中完成
+            playbackHandler.removeCallbacks(periodicSaveRunnable);
+            saveSession();
+            sessionStore.close();
+            
+            // 保存最后一首歌的播放记录
+            finishPlayRecord();
+            playHistoryRecorder.flush();
+            
+            // 释放ExoPlayer资源
+            if (exoPlayer != null) {
+                exoPlayer.release();
+                exoPlayer = null;
+            }
+            
+            // 发布器停止后再释放MediaSession资源
+            nowPlayingPublisher.release();
             mediaSession.release();
-        }
+        });
+        playbackThread.quitSafely();
         
         // 放弃音频焦点
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -0,0 +1,291 @@
+package com.musicplayer.elegant.service;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+import android.util.LruCache;
+
+import androidx.core.app.NotificationCompat;
+
+import com.musicplayer.elegant.MusicPlayerApplication;
+import com.musicplayer.elegant.R;
+import com.musicplayer.elegant.model.Song;
+import com.musicplayer.elegant.ui.MainActivity;
+import com.musicplayer.elegant.util.AlbumArtLoader;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 正在播放信息的发布器，负责前台通知和MediaSession的状态与元数据
+ * <p>
+ * 通知和状态的Builder、PendingIntent以及缩放后的封面位图都会缓存复用；
+ * 每次只比较真正显示的字段，没有变化就不发布。连续切歌时按最小间隔限流，
+ * 间隔内的更新合并为一次，并保证最后的状态一定会发布出去。
+ * <p>
+ * 开始播放时才调用一次startForeground，之后通过NotificationManager更新通知；
+ * 暂停或停止时以stopForeground(false)降级，通知保留但可以划掉。
+ * <p>
+ * 只在播放线程中调用。
+ */
+class NowPlayingPublisher {
+
+    private static final int NOTIFICATION_ID = 1;
+    // 两次发布之间的最小间隔
+    private static final long MIN_PUBLISH_INTERVAL_MS = 250;
+    // 进度与按上次状态推算的结果相差不超过该值时，不重新发布播放状态
+    private static final long POSITION_TOLERANCE_MS = 100;
+    // 缓存的封面数量，足够覆盖来回切换的几首歌
+    private static final int ART_CACHE_SIZE = 8;
+
+    private final Service service;
+    private final MediaSessionCompat mediaSession;
+    private final Handler handler;
+    private final SkipLatencyTracker latencyTracker;
+    private final AlbumArtLoader albumArtLoader;
+    private final int artSizePx;
+
+    private final NotificationManager notificationManager;
+    private final NotificationCompat.Builder notificationBuilder;
+    private final PlaybackStateCompat.Builder stateBuilder = new PlaybackStateCompat.Builder()
+            .setActions(PlaybackStateCompat.ACTION_PLAY |
+                    PlaybackStateCompat.ACTION_PAUSE |
+                    PlaybackStateCompat.ACTION_SKIP_TO_NEXT |
+                    PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS |
+                    PlaybackStateCompat.ACTION_SEEK_TO |
+                    PlaybackStateCompat.ACTION_PLAY_FROM_MEDIA_ID);
+    // 服务当前是否在前台
+    private boolean foreground;
+
+    // 按专辑ID缓存的封面，没有封面的专辑由AlbumArtLoader记住
+    private final LruCache<Long, Bitmap> artCache = new LruCache<>(ART_CACHE_SIZE);
+    private final ExecutorService artExecutor = Executors.newSingleThreadExecutor(runnable ->
+            new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "now-playing-art"));
+    // 正在加载的专辑，后台线程据此跳过已经切走的歌曲
+    private volatile long loadingAlbumId = -1;
+
+    // 等待发布的最新状态
+    private Song pendingSong;
+    private boolean pendingPlaying;
+    private long pendingPositionMs;
+    private float pendingSpeed = 1.0f;
+    private long pendingUpdateTime;
+
+    // 已经发布的状态
+    private Song publishedSong;
+    private Bitmap publishedArt;
+    private boolean metadataPublished;
+    private boolean publishedOngoing;
+    private boolean notificationPublished;
+    private int publishedState = PlaybackStateCompat.STATE_NONE;
+    private long publishedPositionMs;
+    private float publishedSpeed;
+    private long publishedUpdateTime;
+
+    private long lastPublishAt = -MIN_PUBLISH_INTERVAL_MS;
+    private boolean publishScheduled;
+    private final Runnable publishRunnable = this::publish;
+
+    NowPlayingPublisher(Service service, MediaSessionCompat mediaSession, Handler handler,
+                        SkipLatencyTracker latencyTracker) {
+        this.service = service;
+        this.mediaSession = mediaSession;
+        this.handler = handler;
+        this.latencyTracker = latencyTracker;
+        this.albumArtLoader = ((MusicPlayerApplication) service.getApplication()).getAlbumArtLoader();
+        this.artSizePx = service.getResources().getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        this.notificationManager = (NotificationManager) service.getSystemService(Context.NOTIFICATION_SERVICE);
+
+        // 打开主活动的PendingIntent只创建一次
+        Intent notificationIntent = new Intent(service, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+                service, 0, notificationIntent, PendingIntent.FLAG_IMMUTABLE);
+        notificationBuilder = new NotificationCompat.Builder(service, MusicPlayerApplication.CHANNEL_ID)
+                .setContentTitle("未播放")
+                .setContentText("")
+                .setSmallIcon(R.drawable.ic_music_note)
+                .setContentIntent(pendingIntent)
+                .setOnlyAlertOnce(true)
+                .setShowWhen(false);
+    }
+
+    /**
+     * 提交最新的播放状态，距上次发布不足最小间隔时延后合并发布
+     */
+    void update(Song song, boolean playing, long positionMs, float speed) {
+        pendingSong = song;
+        pendingPlaying = playing;
+        pendingPositionMs = positionMs;
+        pendingSpeed = speed;
+        pendingUpdateTime = SystemClock.elapsedRealtime();
+        schedulePublish();
+    }
+
+    /**
+     * 停止加载封面、取消尚未执行的发布并移除通知
+     */
+    void release() {
+        handler.removeCallbacks(publishRunnable);
+        publishScheduled = false;
+        artExecutor.shutdownNow();
+        if (foreground) {
+            service.stopForeground(true);
+            foreground = false;
+        }
+        notificationManager.cancel(NOTIFICATION_ID);
+    }
+
+    private void schedulePublish() {
+        if (publishScheduled) {
+            // 已有一次延后的发布，届时会带上最新的状态
+            return;
+        }
+        long delay = lastPublishAt + MIN_PUBLISH_INTERVAL_MS - SystemClock.elapsedRealtime();
+        if (delay <= 0) {
+            publish();
+        } else {
+            publishScheduled = true;
+            handler.postDelayed(publishRunnable, delay);
+        }
+    }
+
+    private void publish() {
+        publishScheduled = false;
+        lastPublishAt = SystemClock.elapsedRealtime();
+
+        publishPlaybackState();
+
+        Bitmap art = resolveArt(pendingSong);
+        boolean contentChanged = pendingSong != publishedSong || art != publishedArt;
+        if (contentChanged || !metadataPublished) {
+            publishedSong = pendingSong;
+            publishedArt = art;
+            metadataPublished = true;
+            publishMetadata(pendingSong, art);
+        }
+        // 只有正在播放时通知才常驻并让服务保持前台
+        boolean ongoing = pendingPlaying && pendingSong != null;
+        if (contentChanged || ongoing != publishedOngoing || !notificationPublished) {
+            publishedOngoing = ongoing;
+            notificationPublished = true;
+            publishNotification(pendingSong, art, ongoing);
+        }
+    }
+
+    /**
+     * 只有状态、速度改变或进度发生跳变时才发布播放状态
+     */
+    private void publishPlaybackState() {
+        int state = pendingPlaying ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED;
+        if (state == publishedState && pendingSpeed == publishedSpeed) {
+            long expectedMs = publishedPositionMs;
+            if (state == PlaybackStateCompat.STATE_PLAYING) {
+                expectedMs += (long) ((pendingUpdateTime - publishedUpdateTime) * publishedSpeed);
+            }
+            if (Math.abs(expectedMs - pendingPositionMs) <= POSITION_TOLERANCE_MS) {
+                return;
+            }
+        }
+        publishedState = state;
+        publishedPositionMs = pendingPositionMs;
+        publishedSpeed = pendingSpeed;
+        publishedUpdateTime = pendingUpdateTime;
+        stateBuilder.setState(state, pendingPositionMs, pendingSpeed, pendingUpdateTime);
+        mediaSession.setPlaybackState(stateBuilder.build());
+    }
+
+    private void publishMetadata(Song song, Bitmap art) {
+        if (song == null) {
+            mediaSession.setMetadata(null);
+            return;
+        }
+        mediaSession.setMetadata(new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, String.valueOf(song.getId()))
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, song.getTitle())
+                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, song.getArtist())
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, song.getAlbum())
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, song.getDuration())
+                .putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, art)
+                .build());
+    }
+
+    /**
+     * 更新通知，并按是否正在播放切换服务的前台状态
+     */
+    private void publishNotification(Song song, Bitmap art, boolean ongoing) {
+        long start = latencyTracker.now();
+        Notification notification = notificationBuilder
+                .setContentTitle(song != null ? song.getTitle() : "未播放")
+                .setContentText(song != null ? song.getArtist() : "")
+                .setLargeIcon(art)
+                .setOngoing(ongoing)
+                .build();
+        if (ongoing && !foreground) {
+            // 开始播放时进入前台，之后只更新通知
+            service.startForeground(NOTIFICATION_ID, notification);
+            foreground = true;
+        } else {
+            if (!ongoing && foreground) {
+                // 暂停或停止后降级，保留通知
+                service.stopForeground(false);
+                foreground = false;
+            }
+            if (song != null) {
+                notificationManager.notify(NOTIFICATION_ID, notification);
+            } else {
+                notificationManager.cancel(NOTIFICATION_ID);
+            }
+        }
+        latencyTracker.record(SkipLatencyTracker.Phase.NOTIFICATION, start);
+    }
+
+    /**
+     * 从缓存中取封面；未缓存时在后台加载，加载完成后再发布一次
+     */
+    private Bitmap resolveArt(Song song) {
+        if (song == null) {
+            return null;
+        }
+        long albumId = song.getAlbumId();
+        Bitmap art = artCache.get(albumId);
+        if (art != null || albumArtLoader.isMissing(albumId) || albumId == loadingAlbumId) {
+            return art;
+        }
+        loadingAlbumId = albumId;
+        artExecutor.execute(() -> {
+            if (loadingAlbumId != albumId) {
+                // 连续切歌时跳过已经不再需要的封面
+                return;
+            }
+            Bitmap loaded = albumArtLoader.loadBitmap(service, albumId, artSizePx);
+            handler.post(() -> onArtLoaded(albumId, loaded));
+        });
+        return null;
+    }
+
+    private void onArtLoaded(long albumId, Bitmap art) {
+        if (loadingAlbumId == albumId) {
+            loadingAlbumId = -1;
+        }
+        if (art == null) {
+            return;
+        }
+        artCache.put(albumId, art);
+        if (pendingSong != null && pendingSong.getAlbumId() == albumId) {
+            schedulePublish();
+        }
+    }
+}
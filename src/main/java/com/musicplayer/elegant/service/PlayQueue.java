@@ -0,0 +1,399 @@
+package com.musicplayer.elegant.service;
+
+import com.musicplayer.elegant.data.SongRowList;
+import com.musicplayer.elegant.data.SongTable;
+import com.musicplayer.elegant.model.Song;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 播放队列
+ * <p>
+ * 以按位置索引的随机平衡树（隐式Treap）保存队列，插入、删除和移动都是O(log n)，
+ * 不需要像ArrayList那样搬动整个数组。每一项在加入队列时分配一个条目ID，
+ * 条目ID在该项被移除之前保持不变，节点带有父指针，可以从条目ID反查当前位置，
+ * 因此队列编辑之后仍能准确跟踪正在播放的那一项。
+ * <p>
+ * 来自歌曲表的歌曲只在节点中保存行号，需要时才生成Song，从全部歌曲开始播放时不会为整个曲库创建Song。
+ * <p>
+ * 非线程安全，只在播放线程中访问。
+ */
+public class PlayQueue {
+
+    private static final class Node {
+        // 按对象保存的歌曲，按行号保存时为null
+        final Song song;
+        // 在队列引用的歌曲表中的行号
+        final int row;
+        final int entryId;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+        Node parent;
+
+        Node(Song song, int row, int entryId, int priority) {
+            this.song = song;
+            this.row = row;
+            this.entryId = entryId;
+            this.priority = priority;
+        }
+    }
+
+    private interface Visitor {
+        void visit(Node node);
+    }
+
+    private Node root;
+    // 节点中的行号引用的歌曲表，还没有按行号保存的节点时为null
+    private SongTable table;
+    // 条目ID到节点的映射，移除的条目置为null
+    private Node[] entries = new Node[16];
+    private int nextEntryId;
+    // 随机优先级的种子，使用xorshift生成
+    private int seed = 0x2545F491;
+
+    /**
+     * 队列长度
+     */
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * 获取指定位置的歌曲
+     */
+    public Song get(int position) {
+        return songOf(nodeAt(position));
+    }
+
+    /**
+     * 获取指定位置的条目ID
+     */
+    public int entryIdAt(int position) {
+        return nodeAt(position).entryId;
+    }
+
+    /**
+     * 根据条目ID获取歌曲，条目已移除时返回null
+     */
+    public Song getByEntryId(int entryId) {
+        Node node = entry(entryId);
+        return node != null ? songOf(node) : null;
+    }
+
+    /**
+     * 根据条目ID获取歌手ID，不生成Song，条目已移除时返回-1
+     */
+    public long getArtistIdByEntryId(int entryId) {
+        Node node = entry(entryId);
+        if (node == null) {
+            return -1;
+        }
+        return node.song != null ? node.song.getArtistId() : table.getArtistId(node.row);
+    }
+
+    /**
+     * 条目是否仍在队列中
+     */
+    public boolean contains(int entryId) {
+        return entry(entryId) != null;
+    }
+
+    /**
+     * 获取条目当前所在的位置，条目已移除时返回-1
+     */
+    public int positionOf(int entryId) {
+        Node node = entry(entryId);
+        if (node == null) {
+            return -1;
+        }
+        int position = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                position += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return position;
+    }
+
+    /**
+     * 替换整个队列，之前的条目ID全部失效
+     */
+    public void reset(List<Song> songs) {
+        root = null;
+        table = null;
+        entries = new Node[Math.max(16, songs.size())];
+        nextEntryId = 0;
+        root = build(songs);
+    }
+
+    /**
+     * 在指定位置插入歌曲，返回第一首的条目ID，新条目的ID连续递增
+     */
+    public int insert(int position, List<Song> songs) {
+        checkPosition(position, size());
+        int firstEntryId = nextEntryId;
+        Node inserted = build(songs);
+        Node[] parts = split(root, position);
+        root = merge(merge(parts[0], inserted), parts[1]);
+        detach(root);
+        return firstEntryId;
+    }
+
+    /**
+     * 从指定位置开始移除若干项
+     */
+    public void remove(int position, int count) {
+        checkPosition(position, size());
+        checkPosition(position + count, size());
+        Node[] head = split(root, position);
+        Node[] tail = split(head[1], count);
+        forget(tail[0]);
+        root = merge(head[0], tail[1]);
+        detach(root);
+    }
+
+    /**
+     * 把一项从from移动到to，to是移动完成后该项所在的位置
+     */
+    public void move(int from, int to) {
+        checkPosition(from, size() - 1);
+        checkPosition(to, size() - 1);
+        if (from == to) {
+            return;
+        }
+        Node[] head = split(root, from);
+        Node[] tail = split(head[1], 1);
+        Node moved = tail[0];
+        Node rest = merge(head[0], tail[1]);
+        detach(rest);
+        Node[] parts = split(rest, to);
+        root = merge(merge(parts[0], moved), parts[1]);
+        detach(root);
+    }
+
+    /**
+     * 按顺序导出所有歌曲，来自歌曲表的项只导出行号
+     */
+    public List<Song> toList() {
+        SongRowList songs = new SongRowList(table, size());
+        forEachInOrder(node -> {
+            if (node.song != null) {
+                songs.add(node.song);
+            } else {
+                songs.addRow(node.row);
+            }
+        });
+        return songs;
+    }
+
+    /**
+     * 按顺序导出所有歌曲ID
+     */
+    public long[] toSongIds() {
+        long[] songIds = new long[size()];
+        int[] count = new int[1];
+        forEachInOrder(node -> songIds[count[0]++] = node.song != null ? node.song.getId() : table.getId(node.row));
+        return songIds;
+    }
+
+    /**
+     * 按顺序导出所有条目ID
+     */
+    public int[] toEntryIds() {
+        int[] entryIds = new int[size()];
+        int[] count = new int[1];
+        forEachInOrder(node -> entryIds[count[0]++] = node.entryId);
+        return entryIds;
+    }
+
+    /**
+     * 用显式栈做中序遍历，避免深递归
+     */
+    private void forEachInOrder(Visitor visitor) {
+        Node[] stack = new Node[64];
+        int depth = 0;
+        Node node = root;
+        while (node != null || depth > 0) {
+            while (node != null) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = node;
+                node = node.left;
+            }
+            node = stack[--depth];
+            visitor.visit(node);
+            node = node.right;
+        }
+    }
+
+    private Node nodeAt(int position) {
+        checkPosition(position, size() - 1);
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (position < leftSize) {
+                node = node.left;
+            } else if (position == leftSize) {
+                return node;
+            } else {
+                position -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private Song songOf(Node node) {
+        return node.song != null ? node.song : table.get(node.row);
+    }
+
+    private Node entry(int entryId) {
+        return entryId >= 0 && entryId < nextEntryId ? entries[entryId] : null;
+    }
+
+    /**
+     * 按顺序构建子树，使用单调栈在O(k)时间内建成满足堆性质的树
+     */
+    private Node build(List<Song> songs) {
+        if (nextEntryId + songs.size() > entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(entries.length * 2, nextEntryId + songs.size()));
+        }
+        // 歌曲表的列表视图，或按行号引用同一张表的列表，只保存行号
+        SongTable source = SongTable.tableOf(songs);
+        SongRowList rowList = songs instanceof SongRowList ? (SongRowList) songs : null;
+        if (source == null && rowList != null) {
+            source = rowList.getTable();
+        }
+        if (source != null && table == null) {
+            table = source;
+        }
+        boolean byRow = source != null && source == table;
+        Node[] stack = new Node[64];
+        int depth = 0;
+        for (int i = 0, count = songs.size(); i < count; i++) {
+            int row = !byRow ? -1 : rowList != null ? rowList.rowAt(i) : i;
+            Song song = row >= 0 ? null : songs.get(i);
+            Node node = new Node(song, row, nextEntryId, nextPriority());
+            entries[nextEntryId++] = node;
+            Node last = null;
+            while (depth > 0 && stack[depth - 1].priority < node.priority) {
+                last = stack[--depth];
+                update(last);
+            }
+            node.left = last;
+            if (depth > 0) {
+                stack[depth - 1].right = node;
+            }
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = node;
+        }
+        while (depth > 1) {
+            update(stack[--depth]);
+        }
+        if (depth == 0) {
+            return null;
+        }
+        update(stack[0]);
+        stack[0].parent = null;
+        return stack[0];
+    }
+
+    /**
+     * 把树分成前count项和其余部分
+     */
+    private Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[2];
+        }
+        Node[] result;
+        if (size(node.left) >= count) {
+            result = split(node.left, count);
+            node.left = result[1];
+            update(node);
+            result[1] = node;
+        } else {
+            result = split(node.right, count - size(node.left) - 1);
+            node.right = result[0];
+            update(node);
+            result[0] = node;
+        }
+        detach(result[0]);
+        detach(result[1]);
+        return result;
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    /**
+     * 重新计算子树大小并修正子节点的父指针
+     */
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null) {
+            node.left.parent = node;
+        }
+        if (node.right != null) {
+            node.right.parent = node;
+        }
+    }
+
+    private static void detach(Node node) {
+        if (node != null) {
+            node.parent = null;
+        }
+    }
+
+    /**
+     * 清除被移除子树中所有条目的映射
+     */
+    private void forget(Node node) {
+        if (node == null) {
+            return;
+        }
+        entries[node.entryId] = null;
+        forget(node.left);
+        forget(node.right);
+    }
+
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private static int size(Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static void checkPosition(int position, int max) {
+        if (position < 0 || position > max) {
+            throw new IndexOutOfBoundsException("position " + position + ", max " + max);
+        }
+    }
+}
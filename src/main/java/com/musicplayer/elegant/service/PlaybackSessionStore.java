@@ -0,0 +1,226 @@
+package com.musicplayer.elegant.service;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.core.util.AtomicFile;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 播放会话存储
+ * <p>
+ * 会话分成两个紧凑的二进制文件：队列文件保存队列、随机顺序和播放模式，只在它们变化时重写；
+ * 进度文件只有当前位置和进度，播放中的定期保存和暂停时的保存只写它。
+ * 两个文件都带有队列文件的代数，进度文件的代数与队列文件不一致时说明它属于旧队列，
+ * 恢复时改用队列文件中写入时的位置。
+ * <p>
+ * 写入先写临时文件再原子重命名，进程在写入过程中被杀也不会留下损坏的文件；
+ * 读取时一次读入整个文件再解析。
+ */
+class PlaybackSessionStore {
+
+    private static final String TAG = "PlaybackSessionStore";
+    private static final String FILE_NAME = "playback_session.bin";
+    private static final String POSITION_FILE_NAME = "playback_position.bin";
+    private static final int MAGIC = 0x4D505353;
+    private static final int POSITION_MAGIC = 0x4D505350;
+    private static final int VERSION = 1;
+    // 进度文件的长度：魔数、版本、代数、位置、进度
+    private static final int POSITION_LENGTH = 4 + 4 + 4 + 4 + 8;
+
+    /**
+     * 一次会话快照，创建后不再修改
+     */
+    static final class Session {
+        final long[] songIds;          // 队列中歌曲的ID，按队列顺序
+        final int currentIndex;        // 当前歌曲在队列中的位置
+        final long positionMs;         // 当前歌曲的播放进度
+        final int playMode;            // 播放模式的序号
+        final long shuffleSeed;        // 随机顺序使用的种子
+        final boolean avoidArtistClustering;
+        final int[] shuffleOrder;      // 随机顺序，以队列位置表示，非随机模式为空
+
+        Session(long[] songIds, int currentIndex, long positionMs, int playMode,
+                long shuffleSeed, boolean avoidArtistClustering, int[] shuffleOrder) {
+            this.songIds = songIds;
+            this.currentIndex = currentIndex;
+            this.positionMs = positionMs;
+            this.playMode = playMode;
+            this.shuffleSeed = shuffleSeed;
+            this.avoidArtistClustering = avoidArtistClustering;
+            this.shuffleOrder = shuffleOrder;
+        }
+    }
+
+    private final AtomicFile file;
+    private final AtomicFile positionFile;
+    // 最近一次写入（或读到）的队列文件的代数，只在播放线程中访问
+    private int generation;
+    // 写入在专用线程中串行执行，后提交的快照总是覆盖先提交的
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(runnable ->
+            new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "session-writer"));
+
+    PlaybackSessionStore(Context context) {
+        file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        positionFile = new AtomicFile(new File(context.getFilesDir(), POSITION_FILE_NAME));
+    }
+
+    /**
+     * 读取上次保存的会话，不存在或已损坏时返回null
+     */
+    Session read() {
+        byte[] data;
+        try {
+            data = file.readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "读取播放会话失败", e);
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            generation = buffer.getInt();
+            int currentIndex = buffer.getInt();
+            long positionMs = buffer.getLong();
+            int playMode = buffer.getInt();
+            long shuffleSeed = buffer.getLong();
+            boolean avoidArtistClustering = buffer.get() != 0;
+            int songCount = buffer.getInt();
+            if (songCount < 0 || songCount > buffer.remaining() / Long.BYTES) {
+                return null;
+            }
+            long[] songIds = new long[songCount];
+            buffer.asLongBuffer().get(songIds);
+            buffer.position(buffer.position() + songCount * Long.BYTES);
+            int shuffleCount = buffer.getInt();
+            if (shuffleCount < 0 || shuffleCount > buffer.remaining() / Integer.BYTES) {
+                return null;
+            }
+            int[] shuffleOrder = new int[shuffleCount];
+            buffer.asIntBuffer().get(shuffleOrder);
+
+            // 属于同一代队列的进度记录更新
+            ByteBuffer position = readPosition();
+            if (position != null && position.getInt() == generation) {
+                currentIndex = position.getInt();
+                positionMs = position.getLong();
+            }
+            return new Session(songIds, currentIndex, positionMs, playMode,
+                    shuffleSeed, avoidArtistClustering, shuffleOrder);
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, "播放会话文件已损坏", e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取进度文件，返回定位在代数处的缓冲区，不存在或已损坏时返回null
+     */
+    private ByteBuffer readPosition() {
+        byte[] data;
+        try {
+            data = positionFile.readFully();
+        } catch (IOException e) {
+            return null;
+        }
+        if (data.length != POSITION_LENGTH) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != POSITION_MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * 在后台线程中保存整个会话，队列或随机顺序变化后调用
+     */
+    void write(Session session) {
+        int sessionGeneration = ++generation;
+        writeExecutor.execute(() -> {
+            writeNow(session, sessionGeneration);
+            writePositionNow(session.currentIndex, session.positionMs, sessionGeneration);
+        });
+    }
+
+    /**
+     * 在后台线程中只保存当前位置和进度，写入的是固定长度的小文件
+     */
+    void writePosition(int currentIndex, long positionMs) {
+        int sessionGeneration = generation;
+        writeExecutor.execute(() -> writePositionNow(currentIndex, positionMs, sessionGeneration));
+    }
+
+    /**
+     * 停止写入线程，已提交的写入仍会完成
+     */
+    void close() {
+        writeExecutor.shutdown();
+    }
+
+    private void writeNow(Session session, int sessionGeneration) {
+        int length = 4 + 4 + 4 + 4 + 8 + 4 + 8 + 1
+                + 4 + session.songIds.length * Long.BYTES
+                + 4 + session.shuffleOrder.length * Integer.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(sessionGeneration);
+        buffer.putInt(session.currentIndex);
+        buffer.putLong(session.positionMs);
+        buffer.putInt(session.playMode);
+        buffer.putLong(session.shuffleSeed);
+        buffer.put((byte) (session.avoidArtistClustering ? 1 : 0));
+        buffer.putInt(session.songIds.length);
+        for (long songId : session.songIds) {
+            buffer.putLong(songId);
+        }
+        buffer.putInt(session.shuffleOrder.length);
+        for (int position : session.shuffleOrder) {
+            buffer.putInt(position);
+        }
+        writeFully(file, buffer.array());
+    }
+
+    private void writePositionNow(int currentIndex, long positionMs, int sessionGeneration) {
+        ByteBuffer buffer = ByteBuffer.allocate(POSITION_LENGTH);
+        buffer.putInt(POSITION_MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(sessionGeneration);
+        buffer.putInt(currentIndex);
+        buffer.putLong(positionMs);
+        writeFully(positionFile, buffer.array());
+    }
+
+    private static void writeFully(AtomicFile target, byte[] data) {
+        FileOutputStream out = null;
+        try {
+            out = target.startWrite();
+            out.write(data);
+            target.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "保存播放会话失败", e);
+            if (out != null) {
+                target.failWrite(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.musicplayer.elegant.service;
+
+import com.musicplayer.elegant.model.Song;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 播放队列的一次变化，只描述变化的区间，不携带完整列表
+ */
+public final class QueueDelta {
+
+    /**
+     * 变化类型
+     */
+    public enum Type {
+        INSERT,     // 在position处插入songs
+        REMOVE,     // 从position开始移除count首
+        MOVE,       // 把position处的一首移动到toPosition
+        RESET       // 整个队列替换为songs
+    }
+
+    private final Type type;
+    private final int position;
+    private final int count;
+    private final int toPosition;
+    private final List<Song> songs;
+
+    private QueueDelta(Type type, int position, int count, int toPosition, List<Song> songs) {
+        this.type = type;
+        this.position = position;
+        this.count = count;
+        this.toPosition = toPosition;
+        this.songs = songs;
+    }
+
+    /**
+     * songs由调用方交出，之后不再修改
+     */
+    static QueueDelta insert(int position, List<Song> songs) {
+        return new QueueDelta(Type.INSERT, position, songs.size(), -1, songs);
+    }
+
+    static QueueDelta remove(int position, int count) {
+        return new QueueDelta(Type.REMOVE, position, count, -1, Collections.emptyList());
+    }
+
+    static QueueDelta move(int fromPosition, int toPosition) {
+        return new QueueDelta(Type.MOVE, fromPosition, 1, toPosition, Collections.emptyList());
+    }
+
+    /**
+     * songs由调用方交出，之后不再修改
+     */
+    static QueueDelta reset(List<Song> songs) {
+        return new QueueDelta(Type.RESET, 0, songs.size(), -1, songs);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getToPosition() {
+        return toPosition;
+    }
+
+    /**
+     * 插入或替换的歌曲，其他类型为空列表
+     */
+    public List<Song> getSongs() {
+        return Collections.unmodifiableList(songs);
+    }
+
+    /**
+     * 把这次变化应用到一份队列副本上
+     * <p>
+     * 直接把原始列表交给副本，副本是{@link com.musicplayer.elegant.data.SongRowList}时，
+     * 来自歌曲表的项只复制行号。
+     */
+    public void applyTo(List<Song> queue) {
+        switch (type) {
+            case INSERT:
+                queue.addAll(position, songs);
+                break;
+            case REMOVE:
+                queue.subList(position, position + count).clear();
+                break;
+            case MOVE:
+                queue.add(toPosition, queue.remove(position));
+                break;
+            case RESET:
+            default:
+                queue.clear();
+                queue.addAll(songs);
+                break;
+        }
+    }
+}
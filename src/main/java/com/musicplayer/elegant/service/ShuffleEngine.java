@@ -0,0 +1,302 @@
+package com.musicplayer.elegant.service;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 随机播放顺序
+ * <p>
+ * 用带种子的Fisher–Yates洗牌生成队列条目ID的一个排列，随机播放时沿排列前后移动，
+ * 上一首/下一首都是O(1)，整个队列播放完之前不会重复，同一个种子得到同样的顺序。
+ * 新加入的条目追加到末尾后与尚未播放部分中的随机位置交换，不需要重新洗牌；
+ * 移除的条目只留下墓碑标记，墓碑过多时再整体压缩。
+ * <p>
+ * 非线程安全，只在播放线程中访问。
+ */
+public class ShuffleEngine {
+
+    private static final int TOMBSTONE = -1;
+    // 墓碑数量超过该值且超过一半时压缩
+    private static final int MIN_COMPACT_TOMBSTONES = 16;
+    // 避免同一歌手连续出现时，向后查找可交换位置的最大步数
+    private static final int MAX_DECLUMP_SCAN = 64;
+    // 插入时为避免同一歌手相邻而尝试的随机位置数
+    private static final int MAX_INSERT_ATTEMPTS = 8;
+
+    // 按播放顺序排列的条目ID，被移除的位置为TOMBSTONE
+    private int[] order = new int[0];
+    private int size;
+    private int tombstones;
+    // 条目ID到排列下标的映射，不在排列中为-1
+    private int[] indexByEntry = new int[0];
+    // 条目ID对应的歌手ID，用于避免同一歌手连续出现
+    private long[] artistByEntry = new long[0];
+
+    private long seed;
+    private Random random = new Random();
+    private boolean avoidArtistClustering;
+
+    /**
+     * 设置是否避免同一歌手的歌曲连续出现，下次洗牌时生效
+     */
+    public void setAvoidArtistClustering(boolean avoid) {
+        this.avoidArtistClustering = avoid;
+    }
+
+    public boolean isAvoidArtistClustering() {
+        return avoidArtistClustering;
+    }
+
+    /**
+     * 以指定种子重新洗牌，当前条目排在第一位
+     *
+     * @param entryIds  队列中所有条目的ID
+     * @param artistIds 与entryIds一一对应的歌手ID
+     */
+    public void shuffle(int[] entryIds, long[] artistIds, int currentEntryId, long seed) {
+        this.seed = seed;
+        random = new Random(seed);
+        order = Arrays.copyOf(entryIds, entryIds.length);
+        size = order.length;
+        tombstones = 0;
+
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+
+        int maxEntryId = -1;
+        for (int entryId : entryIds) {
+            maxEntryId = Math.max(maxEntryId, entryId);
+        }
+        indexByEntry = new int[maxEntryId + 1];
+        artistByEntry = new long[maxEntryId + 1];
+        for (int i = 0; i < entryIds.length; i++) {
+            artistByEntry[entryIds[i]] = artistIds[i];
+        }
+        reindex();
+
+        // 当前歌曲作为排列的起点
+        int currentIndex = indexOf(currentEntryId);
+        if (currentIndex > 0) {
+            swap(0, currentIndex);
+        }
+        if (avoidArtistClustering) {
+            declump();
+        }
+    }
+
+    /**
+     * 清空排列
+     */
+    public void clear() {
+        order = new int[0];
+        size = 0;
+        tombstones = 0;
+        indexByEntry = new int[0];
+        artistByEntry = new long[0];
+    }
+
+    public boolean isEmpty() {
+        return size - tombstones == 0;
+    }
+
+    /**
+     * 当前排列使用的种子
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * 排列中某个条目之后的一项，到达末尾时回到开头；条目不在排列中时返回-1
+     */
+    public int nextAfter(int entryId) {
+        int index = indexOf(entryId);
+        if (index < 0) {
+            return -1;
+        }
+        for (int step = 1; step <= size; step++) {
+            int candidate = order[(index + step) % size];
+            if (candidate != TOMBSTONE) {
+                return candidate;
+            }
+        }
+        return entryId;
+    }
+
+    /**
+     * 排列中某个条目之前的一项，到达开头时回到末尾；条目不在排列中时返回-1
+     */
+    public int previousBefore(int entryId) {
+        int index = indexOf(entryId);
+        if (index < 0) {
+            return -1;
+        }
+        for (int step = 1; step <= size; step++) {
+            int candidate = order[((index - step) % size + size) % size];
+            if (candidate != TOMBSTONE) {
+                return candidate;
+            }
+        }
+        return entryId;
+    }
+
+    /**
+     * 加入一个新条目，放到当前条目之后尚未播放部分中的随机位置
+     */
+    public void insert(int entryId, long artistId, int currentEntryId) {
+        if (size == order.length) {
+            order = Arrays.copyOf(order, Math.max(16, size * 2));
+        }
+        if (entryId >= indexByEntry.length) {
+            int capacity = Math.max(entryId + 1, indexByEntry.length * 2);
+            int oldLength = indexByEntry.length;
+            indexByEntry = Arrays.copyOf(indexByEntry, capacity);
+            Arrays.fill(indexByEntry, oldLength, capacity, -1);
+            artistByEntry = Arrays.copyOf(artistByEntry, capacity);
+        }
+        artistByEntry[entryId] = artistId;
+        order[size] = entryId;
+        indexByEntry[entryId] = size;
+        size++;
+
+        // 在当前条目之后（含末尾）随机选一个位置交换
+        int from = indexOf(currentEntryId) + 1;
+        int range = size - from;
+        if (range <= 1) {
+            return;
+        }
+        int target = from + random.nextInt(range);
+        if (avoidArtistClustering) {
+            for (int attempt = 1; attempt < MAX_INSERT_ATTEMPTS && clustersAt(target, artistId); attempt++) {
+                target = from + random.nextInt(range);
+            }
+        }
+        swap(size - 1, target);
+    }
+
+    /**
+     * 移除一个条目，只留下墓碑，其余条目的顺序不变
+     */
+    public void remove(int entryId) {
+        int index = indexOf(entryId);
+        if (index < 0) {
+            return;
+        }
+        order[index] = TOMBSTONE;
+        indexByEntry[entryId] = -1;
+        tombstones++;
+        if (tombstones > MIN_COMPACT_TOMBSTONES && tombstones * 2 > size) {
+            compact();
+        }
+    }
+
+    /**
+     * 按播放顺序导出排列中的条目ID
+     */
+    public int[] toEntryIds() {
+        int[] entryIds = new int[size - tombstones];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (order[i] != TOMBSTONE) {
+                entryIds[count++] = order[i];
+            }
+        }
+        return entryIds;
+    }
+
+    /**
+     * 恢复之前保存的排列，不重新洗牌
+     */
+    public void restore(int[] entryIds, long[] artistIds, int[] shuffledEntryIds, long seed) {
+        this.seed = seed;
+        // 之后插入的条目仍然使用可复现的随机数
+        random = new Random(seed ^ shuffledEntryIds.length);
+        order = Arrays.copyOf(shuffledEntryIds, shuffledEntryIds.length);
+        size = order.length;
+        tombstones = 0;
+
+        int maxEntryId = -1;
+        for (int entryId : entryIds) {
+            maxEntryId = Math.max(maxEntryId, entryId);
+        }
+        indexByEntry = new int[maxEntryId + 1];
+        artistByEntry = new long[maxEntryId + 1];
+        for (int i = 0; i < entryIds.length; i++) {
+            artistByEntry[entryIds[i]] = artistIds[i];
+        }
+        reindex();
+    }
+
+    /**
+     * 尽量让相邻两项来自不同歌手，只向后查找有限的步数
+     */
+    private void declump() {
+        for (int i = 1; i < size; i++) {
+            long previousArtist = artistByEntry[order[i - 1]];
+            if (artistByEntry[order[i]] != previousArtist) {
+                continue;
+            }
+            int limit = Math.min(size, i + 1 + MAX_DECLUMP_SCAN);
+            for (int j = i + 1; j < limit; j++) {
+                if (artistByEntry[order[j]] != previousArtist) {
+                    swap(i, j);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把artistId放到target位置时是否会与前一项同一歌手
+     */
+    private boolean clustersAt(int target, long artistId) {
+        for (int i = target - 1; i >= 0; i--) {
+            if (order[i] != TOMBSTONE) {
+                return artistByEntry[order[i]] == artistId;
+            }
+        }
+        return false;
+    }
+
+    private void compact() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (order[i] != TOMBSTONE) {
+                order[count++] = order[i];
+            }
+        }
+        size = count;
+        tombstones = 0;
+        reindex();
+    }
+
+    private void reindex() {
+        Arrays.fill(indexByEntry, -1);
+        for (int i = 0; i < size; i++) {
+            if (order[i] != TOMBSTONE) {
+                indexByEntry[order[i]] = i;
+            }
+        }
+    }
+
+    private int indexOf(int entryId) {
+        return entryId >= 0 && entryId < indexByEntry.length ? indexByEntry[entryId] : -1;
+    }
+
+    private void swap(int i, int j) {
+        int a = order[i];
+        int b = order[j];
+        order[i] = b;
+        order[j] = a;
+        if (a != TOMBSTONE) {
+            indexByEntry[a] = j;
+        }
+        if (b != TOMBSTONE) {
+            indexByEntry[b] = i;
+        }
+    }
+}
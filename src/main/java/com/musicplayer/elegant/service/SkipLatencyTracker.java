@@ -0,0 +1,117 @@
+package com.musicplayer.elegant.service;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 切歌延迟统计，记录从点击切歌到听到声音之间各个阶段的耗时
+ */
+public class SkipLatencyTracker {
+
+    /**
+     * 统计的阶段
+     */
+    public enum Phase {
+        FOCUS,              // 请求音频焦点
+        PREPARE_TO_READY,   // 开始装载到播放器就绪
+        FIRST_AUDIO,        // 点击切歌到音频开始输出
+        NOTIFICATION        // 构建并发布前台通知
+    }
+
+    private final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+
+    // 正在进行的切歌开始时间，-1表示没有
+    private long skipStartMs = -1;
+    // 等待就绪的装载开始时间，-1表示没有
+    private long prepareStartMs = -1;
+
+    public SkipLatencyTracker() {
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * 当前时间，用作各阶段的起点
+     */
+    public long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 记录从startMs到现在的耗时
+     */
+    public void record(Phase phase, long startMs) {
+        histograms.get(phase).record(now() - startMs);
+    }
+
+    /**
+     * 用户发起切歌
+     */
+    public synchronized void onSkipRequested() {
+        skipStartMs = now();
+    }
+
+    /**
+     * 播放器开始装载新的歌曲
+     */
+    public synchronized void onPrepareStarted() {
+        prepareStartMs = now();
+    }
+
+    /**
+     * 播放器已就绪
+     */
+    public synchronized void onReady() {
+        if (prepareStartMs >= 0) {
+            record(Phase.PREPARE_TO_READY, prepareStartMs);
+            prepareStartMs = -1;
+        }
+    }
+
+    /**
+     * 音频开始输出
+     */
+    public synchronized void onAudioStarted() {
+        if (skipStartMs >= 0) {
+            record(Phase.FIRST_AUDIO, skipStartMs);
+            skipStartMs = -1;
+        }
+    }
+
+    /**
+     * 切歌被中断（例如用户暂停），不再等待音频输出
+     */
+    public synchronized void cancelSkip() {
+        skipStartMs = -1;
+    }
+
+    /**
+     * 获取某个阶段的直方图
+     */
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms.get(phase);
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * 输出所有阶段的统计，用于调试
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("切歌延迟统计：");
+        for (Phase phase : Phase.values()) {
+            writer.println("  " + phase + ": " + histograms.get(phase));
+        }
+    }
+}
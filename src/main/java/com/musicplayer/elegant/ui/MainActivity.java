@@ -16,10 +16,10 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
 
-import com.bumptech.glide.Glide;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.musicplayer.elegant.MusicPlayerApplication;
 import com.musicplayer.elegant.R;
 import com.musicplayer.elegant.model.Song;
 import com.musicplayer.elegant.service.MusicPlaybackService;
@@ -165,11 +165,8 @@ public class MainActivity extends AppCompatActivity implements BottomNavigationV
         artistNameTextView.setText(song.getArtist());
         
         // 加载专辑封面
-        Glide.with(this)
-                .load(song.getAlbumArtUri())
-                .placeholder(R.drawable.default_album_art)
-                .error(R.drawable.default_album_art)
-                .into(albumArtImageView);
+        ((MusicPlayerApplication) getApplication()).getAlbumArtLoader().load(albumArtImageView, song,
+                getResources().getDimensionPixelSize(R.dimen.album_art_mini_size));
     }
 
     @Override
@@ -3,6 +3,7 @@ package com.musicplayer.elegant.ui;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.view.View;
 import android.widget.ImageButton;
 import android.widget.ImageView;
@@ -13,11 +14,13 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.lifecycle.ViewModelProvider;
 
-import com.bumptech.glide.Glide;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.musicplayer.elegant.MusicPlayerApplication;
 import com.musicplayer.elegant.R;
+import com.musicplayer.elegant.model.PlaybackPosition;
 import com.musicplayer.elegant.model.Song;
 import com.musicplayer.elegant.service.MusicPlaybackService;
+import com.musicplayer.elegant.util.TimeFormatter;
 import com.musicplayer.elegant.viewmodel.MusicPlayerViewModel;
 
 /**
@@ -39,6 +42,10 @@ public class PlayDetailActivity extends AppCompatActivity {
     private ImageButton nextButton;
     private ImageButton playModeButton;
     private ImageButton favoriteButton;
+
+    // 进度和总时长各自复用一块字符缓冲区，每秒刷新时不产生新的字符串
+    private final TimeFormatter currentTimeFormatter = new TimeFormatter();
+    private final TimeFormatter totalTimeFormatter = new TimeFormatter();
     
     // 播放模式图标资源
     private final int[] playModeIcons = {
@@ -48,13 +55,24 @@ public class PlayDetailActivity extends AppCompatActivity {
             R.drawable.ic_shuffle       // 随机播放
     };
     
-    // 用于更新进度条的Handler
+    // 进度锚点，当前进度由锚点和经过的时间在本地推算
+    private PlaybackPosition playbackPosition = PlaybackPosition.IDLE;
+    // 页面可见时才刷新进度
+    private boolean visible;
+    // 用户正在拖动进度条
+    private boolean trackingTouch;
+    
+    // 用于更新进度条的Handler，只在可见且正在播放时运行
     private final Handler handler = new Handler(Looper.getMainLooper());
     private final Runnable updateSeekBarRunnable = new Runnable() {
         @Override
         public void run() {
-            updateSeekBar();
-            handler.postDelayed(this, 1000); // 每秒更新一次
+            long position = updateSeekBar();
+            if (visible && !trackingTouch && playbackPosition.isPlaying()) {
+                // 在显示的秒数即将变化时再刷新
+                long delay = (long) ((1000 - position % 1000) / Math.max(playbackPosition.getSpeed(), 0.1f));
+                handler.postDelayed(this, Math.max(delay, 16));
+            }
         }
     };
 
@@ -74,9 +92,20 @@ public class PlayDetailActivity extends AppCompatActivity {
         
         // 观察当前播放歌曲变化
         observeCurrentSong();
-        
-        // 开始更新进度条
-        handler.post(updateSeekBarRunnable);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        visible = true;
+        scheduleSeekBarUpdate();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        visible = false;
+        handler.removeCallbacks(updateSeekBarRunnable);
     }
 
     private void initViews() {
@@ -141,10 +170,11 @@ public class PlayDetailActivity extends AppCompatActivity {
         
         // 收藏按钮点击事件
         favoriteButton.setOnClickListener(v -> {
-            // 切换收藏状态
-            boolean isFavorite = favoriteButton.getTag() != null && (boolean) favoriteButton.getTag();
-            setFavoriteState(!isFavorite);
-            // 实际应用中应该将收藏状态保存到数据库
+            // 切换收藏状态，内存立即更新，数据库在后台批量写入
+            Song song = viewModel.getCurrentSong().getValue();
+            if (song != null) {
+                setFavoriteState(viewModel.toggleFavorite(song));
+            }
         });
         
         // 进度条拖动事件
@@ -153,13 +183,14 @@ public class PlayDetailActivity extends AppCompatActivity {
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 if (fromUser) {
                     // 用户拖动进度条时更新当前时间显示
-                    currentTimeTextView.setText(formatTime(progress));
+                    currentTimeFormatter.setText(currentTimeTextView, progress);
                 }
             }
 
             @Override
             public void onStartTrackingTouch(SeekBar seekBar) {
                 // 开始拖动时暂停更新进度条
+                trackingTouch = true;
                 handler.removeCallbacks(updateSeekBarRunnable);
             }
 
@@ -167,8 +198,8 @@ public class PlayDetailActivity extends AppCompatActivity {
             public void onStopTrackingTouch(SeekBar seekBar) {
                 // 停止拖动时，将播放位置设置为拖动位置
                 viewModel.seekTo(seekBar.getProgress());
-                // 恢复更新进度条
-                handler.post(updateSeekBarRunnable);
+                // 跳转后服务会发布新的锚点，届时恢复更新进度条
+                trackingTouch = false;
             }
         });
     }
@@ -185,6 +216,27 @@ public class PlayDetailActivity extends AppCompatActivity {
                 playPauseButton.setImageResource(R.drawable.ic_play);
             }
         });
+        
+        // 观察进度锚点，只在播放状态或位置跳变时更新
+        viewModel.getPlaybackPosition().observe(this, position -> {
+            playbackPosition = position;
+            long duration = position.getDurationMs();
+            if (duration > 0 && seekBar.getMax() != (int) duration) {
+                seekBar.setMax((int) duration);
+                totalTimeFormatter.setText(totalTimeTextView, duration);
+            }
+            scheduleSeekBarUpdate();
+        });
+    }
+
+    /**
+     * 立即刷新一次进度，正在播放时继续定时刷新
+     */
+    private void scheduleSeekBarUpdate() {
+        handler.removeCallbacks(updateSeekBarRunnable);
+        if (visible && !trackingTouch) {
+            updateSeekBarRunnable.run();
+        }
     }
 
     private void updateSongInfo(Song song) {
@@ -193,27 +245,28 @@ public class PlayDetailActivity extends AppCompatActivity {
             songTitleTextView.setText(song.getTitle());
             artistNameTextView.setText(song.getArtist());
             
-            // 加载专辑封面
-            Glide.with(this)
-                    .load(song.getAlbumArtUri())
-                    .placeholder(R.drawable.default_album_art)
-                    .error(R.drawable.default_album_art)
-                    .into(albumArtImageView);
+            // 加载专辑封面，封面约占屏幕宽度的80%
+            ((MusicPlayerApplication) getApplication()).getAlbumArtLoader().load(albumArtImageView, song,
+                    getResources().getDisplayMetrics().widthPixels * 4 / 5);
             
-            // 更新进度条最大值
-            long duration = viewModel.getDuration();
+            // 更新进度条最大值，播放器解析出准确时长后会随进度锚点再次更新
+            long duration = song.getDuration();
             seekBar.setMax((int) duration);
-            totalTimeTextView.setText(formatTime(duration));
+            totalTimeFormatter.setText(totalTimeTextView, duration);
             
             // 更新播放模式图标
             updatePlayModeIcon(viewModel.getPlayMode());
+            
+            // 更新收藏状态
+            setFavoriteState(viewModel.isFavorite(song));
         }
     }
 
-    private void updateSeekBar() {
-        long currentPosition = viewModel.getCurrentPosition();
+    private long updateSeekBar() {
+        long currentPosition = playbackPosition.getPosition(SystemClock.elapsedRealtime());
         seekBar.setProgress((int) currentPosition);
-        currentTimeTextView.setText(formatTime(currentPosition));
+        currentTimeFormatter.setText(currentTimeTextView, currentPosition);
+        return currentPosition;
     }
 
     private void updatePlayModeIcon(MusicPlaybackService.PlayMode playMode) {
@@ -245,15 +298,6 @@ public class PlayDetailActivity extends AppCompatActivity {
         }
     }
 
-    /**
-     * 格式化时间为分:秒格式
-     */
-    private String formatTime(long timeMs) {
-        long minutes = timeMs / 60000;
-        long seconds = (timeMs % 60000) / 1000;
-        return String.format("%d:%02d", minutes, seconds);
-    }
-
     @Override
     protected void onDestroy() {
         super.onDestroy();
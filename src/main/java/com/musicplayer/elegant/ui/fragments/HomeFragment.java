@@ -1,6 +1,8 @@
 package com.musicplayer.elegant.ui.fragments;
 
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,13 +14,13 @@ import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
 import com.musicplayer.elegant.R;
 import com.musicplayer.elegant.adapter.SongAdapter;
-import com.musicplayer.elegant.model.Song;
 import com.musicplayer.elegant.viewmodel.MusicPlayerViewModel;
 
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * 首页Fragment，显示最近播放、收藏和最近添加的歌曲
@@ -32,6 +34,16 @@ public class HomeFragment extends Fragment {
     private SongAdapter recentlyPlayedAdapter;
     private SongAdapter favoritesAdapter;
     private SongAdapter recentlyAddedAdapter;
+    
+    // 三个横向列表共享同一个回收池，卡片可以在列表之间复用
+    private static final int SHARED_POOL_SIZE = 15;
+    // 启动后空闲时预先创建的卡片数量
+    private static final int PREWARM_CARD_COUNT = 12;
+    // 每次空闲只创建一张卡片，单次占用主线程的时间不超过一次inflate
+    private static final int PREWARM_BATCH_SIZE = 1;
+    
+    private RecyclerView.RecycledViewPool sharedPool;
+    private MessageQueue.IdleHandler prewarmHandler;
 
     @Nullable
     @Override
@@ -51,46 +63,99 @@ public class HomeFragment extends Fragment {
         
         // 加载数据
         loadData();
+        
+        // 数据到达之前利用空闲时间预先创建卡片
+        prewarmCards();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (prewarmHandler != null) {
+            Looper.myQueue().removeIdleHandler(prewarmHandler);
+            prewarmHandler = null;
+        }
     }
 
     private void initRecyclerViews(View view) {
+        // 三个列表的封面请求都绑定到Fragment的生命周期，快速滑动时一起暂停
+        RequestManager requestManager = Glide.with(this);
+        sharedPool = new RecyclerView.RecycledViewPool();
+        sharedPool.setMaxRecycledViews(SongAdapter.VIEW_TYPE_CARD, SHARED_POOL_SIZE);
+        
         // 最近播放
         recentlyPlayedRecyclerView = view.findViewById(R.id.recently_played_recycler_view);
-        recentlyPlayedRecyclerView.setLayoutManager(new LinearLayoutManager(requireContext(), LinearLayoutManager.HORIZONTAL, false));
-        recentlyPlayedAdapter = new SongAdapter(requireContext(), new ArrayList<>(), song -> {
+        setupRail(recentlyPlayedRecyclerView);
+        recentlyPlayedAdapter = new SongAdapter(requireContext(), requestManager, new ArrayList<>(), song -> {
             // 播放选中的歌曲
             viewModel.playSong(song, recentlyPlayedAdapter.getSongs());
         });
-        recentlyPlayedRecyclerView.setAdapter(recentlyPlayedAdapter);
+        recentlyPlayedAdapter.attachToRecyclerView(recentlyPlayedRecyclerView);
         
         // 收藏
         favoritesRecyclerView = view.findViewById(R.id.favorites_recycler_view);
-        favoritesRecyclerView.setLayoutManager(new LinearLayoutManager(requireContext(), LinearLayoutManager.HORIZONTAL, false));
-        favoritesAdapter = new SongAdapter(requireContext(), new ArrayList<>(), song -> {
+        setupRail(favoritesRecyclerView);
+        favoritesAdapter = new SongAdapter(requireContext(), requestManager, new ArrayList<>(), song -> {
             // 播放选中的歌曲
             viewModel.playSong(song, favoritesAdapter.getSongs());
         });
-        favoritesRecyclerView.setAdapter(favoritesAdapter);
+        favoritesAdapter.attachToRecyclerView(favoritesRecyclerView);
         
         // 最近添加
         recentlyAddedRecyclerView = view.findViewById(R.id.recently_added_recycler_view);
-        recentlyAddedRecyclerView.setLayoutManager(new LinearLayoutManager(requireContext(), LinearLayoutManager.HORIZONTAL, false));
-        recentlyAddedAdapter = new SongAdapter(requireContext(), new ArrayList<>(), song -> {
+        setupRail(recentlyAddedRecyclerView);
+        recentlyAddedAdapter = new SongAdapter(requireContext(), requestManager, new ArrayList<>(), song -> {
             // 播放选中的歌曲
             viewModel.playSong(song, recentlyAddedAdapter.getSongs());
         });
-        recentlyAddedRecyclerView.setAdapter(recentlyAddedAdapter);
+        recentlyAddedAdapter.attachToRecyclerView(recentlyAddedRecyclerView);
+    }
+
+    /**
+     * 配置横向列表：共享回收池
+     */
+    private void setupRail(RecyclerView recyclerView) {
+        LinearLayoutManager layoutManager = new LinearLayoutManager(requireContext(), LinearLayoutManager.HORIZONTAL, false);
+        // 列表脱离窗口时把卡片归还共享池，供其他列表使用
+        layoutManager.setRecycleChildrenOnDetach(true);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.setRecycledViewPool(sharedPool);
+    }
+
+    /**
+     * 在主线程空闲时逐张创建卡片放入共享池，首次渲染时直接取用
+     * <p>
+     * 每次空闲只创建PREWARM_BATCH_SIZE张，之后让出主线程，期间到达的消息可以先处理。
+     */
+    private void prewarmCards() {
+        prewarmHandler = new MessageQueue.IdleHandler() {
+            private int created;
+
+            @Override
+            public boolean queueIdle() {
+                if (!isAdded() || getView() == null) {
+                    prewarmHandler = null;
+                    return false;
+                }
+                for (int i = 0; i < PREWARM_BATCH_SIZE && created < PREWARM_CARD_COUNT; i++, created++) {
+                    sharedPool.putRecycledView(recentlyAddedAdapter.createViewHolder(
+                            recentlyAddedRecyclerView, SongAdapter.VIEW_TYPE_CARD));
+                }
+                if (created < PREWARM_CARD_COUNT) {
+                    return true;
+                }
+                prewarmHandler = null;
+                return false;
+            }
+        };
+        Looper.myQueue().addIdleHandler(prewarmHandler);
     }
 
     private void loadData() {
-        // 加载最近播放的歌曲（示例数据，实际应用中应该从数据库获取）
-        List<Song> recentlyPlayed = new ArrayList<>();
-        viewModel.getAllSongs().observe(getViewLifecycleOwner(), songs -> {
-            if (songs != null && !songs.isEmpty()) {
-                // 简单示例：使用前几首歌曲作为最近播放
-                int count = Math.min(10, songs.size());
-                recentlyPlayed.addAll(songs.subList(0, count));
-                recentlyPlayedAdapter.updateSongs(recentlyPlayed);
+        // 加载最近播放的歌曲，来自播放统计表的索引
+        viewModel.getRecentlyPlayedSongs().observe(getViewLifecycleOwner(), songs -> {
+            if (songs != null) {
+                recentlyPlayedAdapter.updateSongs(songs);
             }
         });
         
@@ -98,6 +163,9 @@ public class HomeFragment extends Fragment {
         viewModel.getFavoriteSongs().observe(getViewLifecycleOwner(), songs -> {
             if (songs != null) {
                 favoritesAdapter.updateSongs(songs);
+                // 其他列表只需刷新收藏标记
+                recentlyPlayedAdapter.notifyFavoritesChanged();
+                recentlyAddedAdapter.notifyFavoritesChanged();
             }
         });
         
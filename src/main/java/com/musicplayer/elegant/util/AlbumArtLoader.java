@@ -0,0 +1,279 @@
+package com.musicplayer.elegant.util;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.view.ViewConfiguration;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+import com.musicplayer.elegant.R;
+import com.musicplayer.elegant.data.LibraryDelta;
+import com.musicplayer.elegant.data.MediaStoreScanner;
+import com.musicplayer.elegant.model.Song;
+
+import java.io.FileNotFoundException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 专辑封面加载器
+ * <p>
+ * 以专辑ID作为封面的来源，同一专辑的歌曲共用内存和磁盘缓存；
+ * 目标尺寸向上取整到2的幂，解码和磁盘缓存的都是缩放后的缩略图，
+ * 同一尺寸档位的不同控件可以直接复用。
+ * 没有封面的专辑会被记住，之后直接显示默认封面，不再访问ContentResolver。
+ * 只有失败的原因是封面文件不存在时才记住，取消、内存不足、解码失败等临时错误下次仍会重试。
+ */
+public class AlbumArtLoader {
+
+    // 尺寸档位的上下限（像素）
+    private static final int MIN_BUCKET_SIZE = 64;
+    private static final int MAX_BUCKET_SIZE = 1024;
+
+    // 没有封面的专辑ID，在主线程和扫描线程中访问，需要同步
+    private final LongHashSet missingAlbumIds = new LongHashSet();
+
+    /**
+     * 曲库变化后重新尝试加载有变化的专辑的封面
+     */
+    public void onLibraryChanged(LibraryDelta delta) {
+        synchronized (missingAlbumIds) {
+            if (missingAlbumIds.isEmpty()) {
+                return;
+            }
+            forgetMissing(delta.getAdded());
+            forgetMissing(delta.getChanged());
+        }
+    }
+
+    private void forgetMissing(List<Song> songs) {
+        for (Song song : songs) {
+            missingAlbumIds.remove(song.getAlbumId());
+        }
+    }
+
+    /**
+     * 把歌曲的专辑封面加载到控件中，sizePx为控件的大致边长
+     */
+    public void load(ImageView target, Song song, int sizePx) {
+        load(target, song.getAlbumId(), sizePx);
+    }
+
+    /**
+     * 把专辑封面加载到控件中，sizePx为控件的大致边长
+     */
+    public void load(ImageView target, long albumId, int sizePx) {
+        load(Glide.with(target), target, albumId, sizePx);
+    }
+
+    /**
+     * 用指定的RequestManager加载专辑封面；列表中的绑定、预加载和滑动暂停必须使用同一个RequestManager
+     */
+    public void load(RequestManager requestManager, ImageView target, long albumId, int sizePx) {
+        if (isMissing(albumId)) {
+            // 已知没有封面，直接显示默认封面
+            showDefault(requestManager, target);
+            return;
+        }
+
+        request(requestManager, albumId, sizePx).into(target);
+    }
+
+    /**
+     * 取消控件上可能还在进行的旧请求，显示默认封面
+     */
+    public void showDefault(RequestManager requestManager, ImageView target) {
+        requestManager.clear(target);
+        target.setImageResource(R.drawable.default_album_art);
+    }
+
+    /**
+     * 构建封面请求；绑定和预加载必须使用同一个构建方法，才能命中同一份缓存
+     */
+    public RequestBuilder<Drawable> request(RequestManager requestManager, long albumId, int sizePx) {
+        int bucket = bucketFor(sizePx);
+        return requestManager
+                .load(MediaStoreScanner.getAlbumArtUri(albumId))
+                .override(bucket, bucket)
+                .centerCrop()
+                // 只缓存缩放后的缩略图，原图很大且不会被直接使用
+                .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+                .placeholder(R.drawable.default_album_art)
+                .error(R.drawable.default_album_art)
+                .listener(new RequestListener<Drawable>() {
+                    @Override
+                    public boolean onLoadFailed(@Nullable GlideException e, Object model,
+                                                Target<Drawable> glideTarget, boolean isFirstResource) {
+                        if (isNotFound(e)) {
+                            markMissing(albumId);
+                        }
+                        return false;
+                    }
+
+                    @Override
+                    public boolean onResourceReady(Drawable resource, Object model, Target<Drawable> glideTarget,
+                                                   DataSource dataSource, boolean isFirstResource) {
+                        return false;
+                    }
+                });
+    }
+
+    /**
+     * 同步加载缩放后的封面位图，没有封面时返回null
+     * <p>
+     * 会阻塞当前线程直到解码完成，不能在主线程调用。与控件共用磁盘缓存中的缩略图。
+     */
+    @Nullable
+    public Bitmap loadBitmap(Context context, long albumId, int sizePx) {
+        if (isMissing(albumId)) {
+            return null;
+        }
+        int bucket = bucketFor(sizePx);
+        FutureTarget<Bitmap> future = Glide.with(context.getApplicationContext())
+                .asBitmap()
+                .load(MediaStoreScanner.getAlbumArtUri(albumId))
+                .override(bucket, bucket)
+                .centerCrop()
+                .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+                .submit();
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (isNotFound(e.getCause())) {
+                markMissing(albumId);
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 快速滑动时暂停一个列表的封面加载，停下后恢复
+     * <p>
+     * 滑动速度很快时，正在加载和预加载的封面在显示之前就会滑出屏幕，
+     * 暂停期间列表绑定时只显示默认封面、预加载也跳过，把带宽和解码留给最终停下来的位置。
+     * 停下后调用onResume，由列表重新绑定可见项的封面。
+     * <p>
+     * 只影响这一个列表，不暂停共用的RequestManager；通过滚动监听按每帧的位移估算速度，
+     * 不占用列表的OnFlingListener，SnapHelper等仍可正常使用。
+     */
+    public FlingGate pauseDuringFastFling(RecyclerView recyclerView, Runnable onResume) {
+        int maxVelocity = ViewConfiguration.get(recyclerView.getContext()).getScaledMaximumFlingVelocity();
+        FlingGate gate = new FlingGate(maxVelocity / 3, onResume);
+        recyclerView.addOnScrollListener(gate);
+        return gate;
+    }
+
+    /**
+     * 一个列表的快速滑动状态
+     */
+    public static final class FlingGate extends RecyclerView.OnScrollListener {
+        // 超过该速度（像素/秒）时暂停
+        private final int pauseVelocity;
+        private final Runnable onResume;
+        private boolean paused;
+        private long lastScrolledAt;
+
+        FlingGate(int pauseVelocity, Runnable onResume) {
+            this.pauseVelocity = pauseVelocity;
+            this.onResume = onResume;
+        }
+
+        /**
+         * 是否正在快速滑动，此时不应发起封面请求
+         */
+        public boolean isPaused() {
+            return paused;
+        }
+
+        @Override
+        public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+            if (view.getScrollState() != RecyclerView.SCROLL_STATE_SETTLING) {
+                lastScrolledAt = 0;
+                return;
+            }
+            long now = SystemClock.uptimeMillis();
+            if (!paused && lastScrolledAt > 0 && now > lastScrolledAt) {
+                long velocity = Math.max(Math.abs(dx), Math.abs(dy)) * 1000L / (now - lastScrolledAt);
+                paused = velocity > pauseVelocity;
+            }
+            lastScrolledAt = now;
+        }
+
+        @Override
+        public void onScrollStateChanged(@NonNull RecyclerView view, int newState) {
+            if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+                return;
+            }
+            lastScrolledAt = 0;
+            if (paused) {
+                paused = false;
+                onResume.run();
+            }
+        }
+    }
+
+    /**
+     * 把目标尺寸向上取整到2的幂，限制在档位范围内
+     */
+    public static int bucketFor(int sizePx) {
+        if (sizePx <= MIN_BUCKET_SIZE) {
+            return MIN_BUCKET_SIZE;
+        }
+        if (sizePx >= MAX_BUCKET_SIZE) {
+            return MAX_BUCKET_SIZE;
+        }
+        return Integer.highestOneBit(sizePx - 1) << 1;
+    }
+
+    /**
+     * 是否已知该专辑没有封面
+     */
+    public boolean isMissing(long albumId) {
+        synchronized (missingAlbumIds) {
+            return missingAlbumIds.contains(albumId);
+        }
+    }
+
+    /**
+     * 加载失败是否说明专辑确实没有封面：所有根本原因都是文件或资源不存在
+     */
+    private static boolean isNotFound(@Nullable Throwable error) {
+        if (error instanceof GlideException) {
+            List<Throwable> causes = ((GlideException) error).getRootCauses();
+            if (causes.isEmpty()) {
+                return false;
+            }
+            for (Throwable cause : causes) {
+                if (!isNotFound(cause)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return error instanceof FileNotFoundException || error instanceof Resources.NotFoundException;
+    }
+
+    private void markMissing(long albumId) {
+        synchronized (missingAlbumIds) {
+            missingAlbumIds.add(albumId);
+        }
+    }
+}
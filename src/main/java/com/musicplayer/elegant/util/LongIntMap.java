@@ -0,0 +1,145 @@
+package com.musicplayer.elegant.util;
+
+import java.util.Arrays;
+
+/**
+ * long到非负int的哈希表，使用开放寻址和原始数组，查询和修改都不会产生装箱
+ * <p>
+ * 不存在的键返回-1，因此值不能为负数。
+ */
+public class LongIntMap {
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(int expectedSize) {
+        int capacity = 16;
+        // 负载因子不超过0.5
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 获取键对应的值，不存在时返回-1
+     */
+    public int get(long key) {
+        int slot = indexOf(key);
+        return slot >= 0 ? values[slot] : -1;
+    }
+
+    /**
+     * 写入键值，已存在时覆盖
+     */
+    public void put(long key, int value) {
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    /**
+     * 删除键，返回原来的值，不存在时返回-1
+     */
+    public int remove(long key) {
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return -1;
+        }
+        int removed = values[slot];
+        used[slot] = false;
+        size--;
+
+        // 把后面同一探测链上的元素前移，保证查找不会提前终止
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (!used[next]) {
+                return removed;
+            }
+            int home = hash(keys[next]) & mask;
+            boolean reachable = hole <= next
+                    ? (hole < home && home <= next)
+                    : (hole < home || home <= next);
+            if (!reachable) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                used[hole] = true;
+                used[next] = false;
+                hole = next;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private int indexOf(long key) {
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
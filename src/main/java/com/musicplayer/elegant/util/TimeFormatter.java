@@ -0,0 +1,69 @@
+package com.musicplayer.elegant.util;
+
+import android.widget.TextView;
+
+/**
+ * 分:秒格式的时间格式化器
+ * <p>
+ * 直接按位写入字符数组，不经过String.format，没有Formatter、格式串解析和装箱。
+ * 每个实例持有一块缓冲区，配合一个TextView使用：显示的秒数不变时不刷新，
+ * 变化时改写缓冲区后以TextView.setText(char[], int, int)显示，不产生新的字符串。
+ * <p>
+ * 非线程安全，只在主线程中使用。
+ */
+public final class TimeFormatter {
+
+    // long范围内的分钟数最多17位，加上冒号和两位秒数
+    private static final int MAX_LENGTH = 20;
+
+    // TextView直接引用该数组，只能在下一次setText之前改写
+    private final char[] buffer = new char[MAX_LENGTH];
+    private long displayedSeconds = -1;
+
+    /**
+     * 把时间显示到TextView，与上次显示的秒数相同时直接返回
+     */
+    public void setText(TextView view, long timeMs) {
+        long totalSeconds = Math.max(timeMs, 0) / 1000;
+        if (totalSeconds == displayedSeconds) {
+            return;
+        }
+        displayedSeconds = totalSeconds;
+        int length = format(timeMs, buffer, 0);
+        view.setText(buffer, 0, length);
+    }
+
+    /**
+     * 按分:秒格式写入dest，返回写入的字符数，负数按0处理
+     */
+    public static int format(long timeMs, char[] dest, int offset) {
+        long totalSeconds = Math.max(timeMs, 0) / 1000;
+        long minutes = totalSeconds / 60;
+        int seconds = (int) (totalSeconds % 60);
+
+        // 分钟数从低位向高位写，先算出位数
+        int digits = 1;
+        for (long rest = minutes / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int position = offset + digits;
+        do {
+            dest[--position] = (char) ('0' + minutes % 10);
+            minutes /= 10;
+        } while (minutes > 0);
+
+        position = offset + digits;
+        dest[position++] = ':';
+        dest[position++] = (char) ('0' + seconds / 10);
+        dest[position++] = (char) ('0' + seconds % 10);
+        return position - offset;
+    }
+
+    /**
+     * 按分:秒格式生成字符串，用于不需要反复刷新的场合
+     */
+    public static String format(long timeMs) {
+        char[] chars = new char[MAX_LENGTH];
+        return new String(chars, 0, format(timeMs, chars, 0));
+    }
+}
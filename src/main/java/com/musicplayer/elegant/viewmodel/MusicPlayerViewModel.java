@@ -2,15 +2,21 @@ package com.musicplayer.elegant.viewmodel;
 
 import android.app.Application;
 
+import androidx.core.content.ContextCompat;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.musicplayer.elegant.MusicPlayerApplication;
 import com.musicplayer.elegant.data.MusicRepository;
+import com.musicplayer.elegant.data.SongRowList;
+import com.musicplayer.elegant.model.PlaybackPosition;
 import com.musicplayer.elegant.model.Song;
 import com.musicplayer.elegant.service.MusicPlaybackService;
+import com.musicplayer.elegant.service.QueueDelta;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -27,8 +33,15 @@ public class MusicPlayerViewModel extends AndroidViewModel {
     // LiveData用于观察播放状态
     private final MutableLiveData<Boolean> playing = new MutableLiveData<>(false);
     
-    // LiveData用于观察播放列表
-    private final MutableLiveData<List<Song>> playlist = new MutableLiveData<>();
+    // 播放队列的本地副本，由服务发来的增量原地更新；界面只拿到只读视图，按增量局部刷新
+    // 来自歌曲表的项只保存行号，队列和整个曲库一样长时也不为每首歌创建Song
+    private final List<Song> queue = new SongRowList();
+    private final List<Song> queueView = Collections.unmodifiableList(queue);
+    private final MutableLiveData<QueueChange> queueChanges = new MutableLiveData<>();
+    private int queueVersion;
+    
+    // LiveData用于观察播放进度锚点
+    private final MutableLiveData<PlaybackPosition> playbackPosition = new MutableLiveData<>(PlaybackPosition.IDLE);
 
     public MusicPlayerViewModel(Application application) {
         super(application);
@@ -38,34 +51,48 @@ public class MusicPlayerViewModel extends AndroidViewModel {
         playing.setValue(false);
     }
 
+    // 播放事件监听器，回调在主线程执行
+    private final MusicPlaybackService.PlaybackListener playbackListener = new MusicPlaybackService.PlaybackListener() {
+        @Override
+        public void onPlaybackStateChanged(boolean isPlaying) {
+            playing.setValue(isPlaying);
+        }
+
+        @Override
+        public void onSongChanged(Song song) {
+            currentSong.setValue(song);
+        }
+
+        @Override
+        public void onQueueChanged(QueueDelta delta) {
+            delta.applyTo(queue);
+            queueChanges.setValue(new QueueChange(delta, ++queueVersion));
+        }
+
+        @Override
+        public void onPositionChanged(PlaybackPosition position) {
+            playbackPosition.setValue(position);
+        }
+    };
+
     /**
      * 设置音乐服务实例
      */
     public void setMusicService(MusicPlaybackService service) {
+        if (musicService != null) {
+            musicService.removePlaybackListener(playbackListener);
+        }
         this.musicService = service;
         
-        // 设置播放状态监听器
-        service.setPlaybackListener(new MusicPlaybackService.PlaybackListener() {
-            @Override
-            public void onPlaybackStateChanged(boolean isPlaying) {
-                playing.postValue(isPlaying);
-            }
-
-            @Override
-            public void onSongChanged(Song song) {
-                currentSong.postValue(song);
-            }
+        // 订阅播放事件，多个ViewModel可以同时订阅；订阅后先收到当前状态的快照
+        service.addPlaybackListener(playbackListener, ContextCompat.getMainExecutor(getApplication()));
+    }
 
-            @Override
-            public void onPlaylistChanged(List<Song> songs) {
-                playlist.postValue(songs);
-            }
-        });
-        
-        // 同步当前状态
-        if (service.getCurrentSong() != null) {
-            currentSong.setValue(service.getCurrentSong());
-            playing.setValue(service.isPlaying());
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        if (musicService != null) {
+            musicService.removePlaybackListener(playbackListener);
         }
     }
 
@@ -76,6 +103,48 @@ public class MusicPlayerViewModel extends AndroidViewModel {
         return musicRepository.getAllSongs();
     }
 
+    /**
+     * 获取最近添加的歌曲
+     */
+    public LiveData<List<Song>> getRecentSongs() {
+        return musicRepository.getRecentSongs();
+    }
+
+    /**
+     * 获取最近播放的歌曲
+     */
+    public LiveData<List<Song>> getRecentlyPlayedSongs() {
+        return musicRepository.getRecentlyPlayedSongs();
+    }
+
+    /**
+     * 获取播放次数最多的歌曲
+     */
+    public LiveData<List<Song>> getMostPlayedSongs() {
+        return musicRepository.getMostPlayedSongs();
+    }
+
+    /**
+     * 获取收藏的歌曲
+     */
+    public LiveData<List<Song>> getFavoriteSongs() {
+        return musicRepository.getFavoriteSongs();
+    }
+
+    /**
+     * 是否已收藏
+     */
+    public boolean isFavorite(Song song) {
+        return song != null && musicRepository.isFavorite(song.getId());
+    }
+
+    /**
+     * 切换收藏状态，返回切换后的状态
+     */
+    public boolean toggleFavorite(Song song) {
+        return song != null && musicRepository.toggleFavorite(song.getId());
+    }
+
     /**
      * 获取当前播放的歌曲
      */
@@ -91,10 +160,75 @@ public class MusicPlayerViewModel extends AndroidViewModel {
     }
 
     /**
-     * 获取当前播放列表
+     * 获取播放进度锚点，界面据此在本地推算当前进度
+     */
+    public LiveData<PlaybackPosition> getPlaybackPosition() {
+        return playbackPosition;
+    }
+
+    /**
+     * 当前播放队列的只读视图，内容随增量原地更新，不会为每次变化复制整个队列
      */
-    public LiveData<List<Song>> getPlaylist() {
-        return playlist;
+    public List<Song> getQueue() {
+        return queueView;
+    }
+
+    /**
+     * 播放队列的变化，每次变化带一个递增的版本号
+     */
+    public LiveData<QueueChange> getQueueChanges() {
+        return queueChanges;
+    }
+
+    /**
+     * 播放队列的一次变化及变化后的版本号
+     */
+    public static final class QueueChange {
+        private final QueueDelta delta;
+        private final int version;
+
+        QueueChange(QueueDelta delta, int version) {
+            this.delta = delta;
+            this.version = version;
+        }
+
+        public QueueDelta getDelta() {
+            return delta;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * 把变化转换为列表的局部刷新
+         * <p>
+         * 观察者不活跃期间LiveData只保留最新的一次变化，版本号不连续时说明中间有变化被跳过，
+         * 此时只能整体刷新。
+         *
+         * @param lastVersion 适配器上一次应用的版本号
+         */
+        public void dispatchTo(RecyclerView.Adapter<?> adapter, int lastVersion) {
+            if (version != lastVersion + 1) {
+                adapter.notifyDataSetChanged();
+                return;
+            }
+            switch (delta.getType()) {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(delta.getPosition(), delta.getCount());
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(delta.getPosition(), delta.getCount());
+                    break;
+                case MOVE:
+                    adapter.notifyItemMoved(delta.getPosition(), delta.getToPosition());
+                    break;
+                case RESET:
+                default:
+                    adapter.notifyDataSetChanged();
+                    break;
+            }
+        }
     }
 
     /**
@@ -109,6 +243,51 @@ public class MusicPlayerViewModel extends AndroidViewModel {
         }
     }
 
+    /**
+     * 播放队列中指定位置的歌曲
+     */
+    public void playQueueItem(int position) {
+        if (musicService != null) {
+            musicService.playSong(position);
+        }
+    }
+
+    /**
+     * 作为下一首播放
+     */
+    public void playAfterCurrent(Song song) {
+        if (musicService != null && song != null) {
+            musicService.playAfterCurrent(Collections.singletonList(song));
+        }
+    }
+
+    /**
+     * 添加到播放队列末尾
+     */
+    public void addToQueue(Song song) {
+        if (musicService != null && song != null) {
+            musicService.addToQueue(Collections.singletonList(song));
+        }
+    }
+
+    /**
+     * 移动播放队列中的一项
+     */
+    public void moveQueueItem(int from, int to) {
+        if (musicService != null) {
+            musicService.moveQueueItem(from, to);
+        }
+    }
+
+    /**
+     * 从播放队列中移除一项
+     */
+    public void removeFromQueue(int position) {
+        if (musicService != null) {
+            musicService.removeFromQueue(position);
+        }
+    }
+
     /**
      * 播放/暂停
      */
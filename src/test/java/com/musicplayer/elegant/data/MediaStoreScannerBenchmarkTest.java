@@ -0,0 +1,271 @@
+package com.musicplayer.elegant.data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.app.Application;
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.provider.MediaStore;
+
+import com.musicplayer.elegant.model.Song;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 扫描吞吐量基准：对比MediaStoreScanner与原来的扫描循环每秒读取的行数
+ * <p>
+ * 原来的循环不指定投影，每一行调用十次getColumnIndexOrThrow；现在只投影Song需要的列，列索引是常量，并按页查询。
+ * 用进程内的假MediaStore代替真实的媒体库，测量的是游标构建和逐行读取的开销，不包括binder传输，
+ * 真实设备上少传的列会让差距更大。结果输出到标准输出，只校验两种方式读到的行数一致。
+ */
+@RunWith(RobolectricTestRunner.class)
+// 不启动MusicPlayerApplication，避免曲库同步在后台查询同一个假媒体库
+@Config(application = Application.class)
+public class MediaStoreScannerBenchmarkTest {
+
+    private static final int ROW_COUNT = 20_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(FakeMediaProvider.class, MediaStore.AUTHORITY);
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @Test
+    public void compareRowsPerSecond() {
+        MediaStoreScanner scanner = new MediaStoreScanner(context);
+        int[] scanned = new int[1];
+        MediaStoreScanner.Callback callback = page -> scanned[0] += page.size();
+
+        long legacyNanos = Long.MAX_VALUE;
+        long scannerNanos = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            int legacyCount = legacyLoadSongs().size();
+            long legacyElapsed = System.nanoTime() - start;
+
+            scanned[0] = 0;
+            start = System.nanoTime();
+            scanner.scan(callback);
+            long scannerElapsed = System.nanoTime() - start;
+
+            assertEquals(ROW_COUNT, legacyCount);
+            assertEquals(ROW_COUNT, scanned[0]);
+            if (round >= WARMUP_ROUNDS) {
+                // 取最好的一轮，减少GC和JIT的干扰
+                legacyNanos = Math.min(legacyNanos, legacyElapsed);
+                scannerNanos = Math.min(scannerNanos, scannerElapsed);
+            }
+        }
+
+        System.out.println("扫描 " + ROW_COUNT + " 首："
+                + "原来的循环 " + rowsPerSecond(legacyNanos) + " 首/秒，"
+                + "MediaStoreScanner " + rowsPerSecond(scannerNanos) + " 首/秒");
+    }
+
+    /**
+     * 改为MediaStoreScanner之前的扫描循环
+     */
+    private List<Song> legacyLoadSongs() {
+        List<Song> songs = new ArrayList<>();
+        ContentResolver contentResolver = context.getContentResolver();
+        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        String selection = MediaStore.Audio.Media.IS_MUSIC + "!= 0";
+        String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
+        Cursor cursor = contentResolver.query(uri, null, selection, null, sortOrder);
+
+        if (cursor != null && cursor.getCount() > 0) {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID));
+                String title = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE));
+                String artist = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST));
+                String album = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM));
+                String path = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA));
+                long duration = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION));
+                long albumId = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID));
+                long artistId = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST_ID));
+                long size = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.SIZE));
+                long dateAdded = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED));
+
+                songs.add(new Song(id, title, artist, album, path, duration, albumId, artistId, size, dateAdded));
+            }
+        }
+        if (cursor != null) {
+            cursor.close();
+        }
+        return songs;
+    }
+
+    private static long rowsPerSecond(long nanos) {
+        return ROW_COUNT * 1_000_000_000L / Math.max(nanos, 1);
+    }
+
+    /**
+     * 进程内的假MediaStore，列与真实的音频表相近，支持投影和LIMIT/OFFSET分页
+     */
+    public static class FakeMediaProvider extends ContentProvider {
+
+        private static final Pattern LIMIT_CLAUSE = Pattern.compile(" LIMIT (\\d+) OFFSET (\\d+)$");
+
+        private static final String[] ALL_COLUMNS = {
+                MediaStore.Audio.Media._ID,
+                MediaStore.Audio.Media.DATA,
+                MediaStore.Audio.Media.SIZE,
+                MediaStore.Audio.Media.DISPLAY_NAME,
+                MediaStore.Audio.Media.TITLE,
+                MediaStore.Audio.Media.TITLE_KEY,
+                MediaStore.Audio.Media.DATE_ADDED,
+                MediaStore.Audio.Media.DATE_MODIFIED,
+                MediaStore.Audio.Media.MIME_TYPE,
+                MediaStore.Audio.Media.DURATION,
+                MediaStore.Audio.Media.BOOKMARK,
+                MediaStore.Audio.Media.ARTIST_ID,
+                MediaStore.Audio.Media.ARTIST,
+                MediaStore.Audio.Media.ARTIST_KEY,
+                MediaStore.Audio.Media.COMPOSER,
+                MediaStore.Audio.Media.ALBUM_ID,
+                MediaStore.Audio.Media.ALBUM,
+                MediaStore.Audio.Media.ALBUM_KEY,
+                MediaStore.Audio.Media.TRACK,
+                MediaStore.Audio.Media.YEAR,
+                MediaStore.Audio.Media.IS_MUSIC,
+                MediaStore.Audio.Media.IS_PODCAST,
+                MediaStore.Audio.Media.IS_RINGTONE,
+                MediaStore.Audio.Media.IS_ALARM,
+                MediaStore.Audio.Media.IS_NOTIFICATION
+        };
+
+        private Object[][] rows;
+
+        @Override
+        public boolean onCreate() {
+            rows = new Object[ROW_COUNT][];
+            for (int i = 0; i < ROW_COUNT; i++) {
+                long id = i + 1;
+                String title = "Song " + id;
+                String artist = "Artist " + (i % 500);
+                String album = "Album " + (i % 2000);
+                rows[i] = new Object[]{
+                        id,
+                        "/storage/emulated/0/Music/" + album + "/" + title + ".mp3",
+                        4_000_000L + i,
+                        title + ".mp3",
+                        title,
+                        title.toLowerCase(),
+                        1_600_000_000L + i,
+                        1_600_000_000L + i,
+                        "audio/mpeg",
+                        180_000L + i % 120_000,
+                        0L,
+                        (long) (i % 500),
+                        artist,
+                        artist.toLowerCase(),
+                        null,
+                        (long) (i % 2000),
+                        album,
+                        album.toLowerCase(),
+                        i % 20 + 1,
+                        2000 + i % 25,
+                        1,
+                        0,
+                        0,
+                        0,
+                        0
+                };
+            }
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, Bundle queryArgs, CancellationSignal cancellationSignal) {
+            int limit = queryArgs != null ? queryArgs.getInt(ContentResolver.QUERY_ARG_LIMIT, ROW_COUNT) : ROW_COUNT;
+            int offset = queryArgs != null ? queryArgs.getInt(ContentResolver.QUERY_ARG_OFFSET, 0) : 0;
+            return buildCursor(projection, offset, limit);
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            int limit = ROW_COUNT;
+            int offset = 0;
+            Matcher matcher = sortOrder != null ? LIMIT_CLAUSE.matcher(sortOrder) : null;
+            if (matcher != null && matcher.find()) {
+                limit = Integer.parseInt(matcher.group(1));
+                offset = Integer.parseInt(matcher.group(2));
+            }
+            return buildCursor(projection, offset, limit);
+        }
+
+        /**
+         * 按投影复制列，与真实的媒体库一样每次查询都生成新的游标
+         */
+        private Cursor buildCursor(String[] projection, int offset, int limit) {
+            String[] columns = projection != null ? projection : ALL_COLUMNS;
+            int[] sourceColumns = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                sourceColumns[i] = indexOfColumn(columns[i]);
+            }
+            int end = Math.min(ROW_COUNT, offset + limit);
+            MatrixCursor cursor = new MatrixCursor(columns, Math.max(end - offset, 0));
+            for (int row = offset; row < end; row++) {
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = rows[row][sourceColumns[i]];
+                }
+                cursor.addRow(values);
+            }
+            return cursor;
+        }
+
+        private static int indexOfColumn(String column) {
+            for (int i = 0; i < ALL_COLUMNS.length; i++) {
+                if (ALL_COLUMNS[i].equals(column)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("未知的列: " + column);
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
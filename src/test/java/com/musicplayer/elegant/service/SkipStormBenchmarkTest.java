@@ -0,0 +1,168 @@
+package com.musicplayer.elegant.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import com.musicplayer.elegant.model.Song;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 切歌风暴基准：向服务连续发送多次切歌，只等待最后一次就绪，用SkipLatencyTracker的直方图统计各阶段耗时
+ * <p>
+ * 播放器装载的是测试时生成的本地WAV文件。Robolectric中的时钟是模拟时钟，等待时每推进1毫秒就让出1毫秒真实时间，
+ * 播放线程和ExoPlayer的内部线程在这段时间内处理到期的消息，直方图中的数值近似真实耗时。
+ * 结果输出到标准输出，只校验每一轮风暴都走完了统计流程，不对耗时设阈值。
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class SkipStormBenchmarkTest {
+
+    private static final int TRACK_COUNT = 8;
+    // 每首测试音频的时长，远长于一轮风暴，播放不会自然结束
+    private static final int TRACK_SECONDS = 30;
+    private static final int SAMPLE_RATE = 8000;
+    private static final int STORM_COUNT = 20;
+    private static final int SKIPS_PER_STORM = 10;
+    // 一轮风暴等待就绪的模拟时间上限
+    private static final long SETTLE_TIMEOUT_MS = 10_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServiceController<MusicPlaybackService> controller;
+    private MusicPlaybackService service;
+    private SkipLatencyTracker tracker;
+    private List<Song> songs;
+
+    @Before
+    public void setUp() throws IOException {
+        songs = new ArrayList<>();
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            File file = writeTone(folder.newFile("track" + i + ".wav"), 220 + 55 * i);
+            songs.add(new Song(i + 1, "Track " + i, "Artist " + (i % 3), "Album " + (i % 2),
+                    file.getAbsolutePath(), TRACK_SECONDS * 1000L, i % 2 + 1, i % 3 + 1, file.length(), 0));
+        }
+        controller = Robolectric.buildService(MusicPlaybackService.class).create();
+        service = controller.get();
+        tracker = service.getSkipLatencyTracker();
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+    }
+
+    @Test
+    public void replaySkipStorms() {
+        service.setPlaylist(songs, 0);
+        awaitReadyCount(1);
+        // 只统计风暴中的切歌
+        tracker.reset();
+
+        // 从第一次切歌到最后一次就绪的耗时，包括中途被打断的装载
+        LatencyHistogram stormHistogram = new LatencyHistogram();
+        Random random = new Random(42);
+        for (int storm = 0; storm < STORM_COUNT; storm++) {
+            long readyCount = tracker.getHistogram(SkipLatencyTracker.Phase.PREPARE_TO_READY).getCount();
+            long start = tracker.now();
+            for (int i = 0; i < SKIPS_PER_STORM; i++) {
+                // 偶尔夹杂上一首，窗口中的预加载项和重新装载两条路径都会经过
+                if (random.nextInt(4) == 0) {
+                    service.playPrevious();
+                } else {
+                    service.playNext();
+                }
+            }
+            awaitReadyCount(readyCount + 1);
+            stormHistogram.record(tracker.now() - start);
+        }
+
+        StringWriter report = new StringWriter();
+        PrintWriter writer = new PrintWriter(report);
+        tracker.dump(writer);
+        writer.println("  STORM: " + stormHistogram);
+        writer.flush();
+        System.out.println(report);
+
+        assertEquals(STORM_COUNT, stormHistogram.getCount());
+        // 测试音频的播放进度不会超过3秒，每次切歌都会请求音频焦点
+        assertEquals(STORM_COUNT * SKIPS_PER_STORM,
+                tracker.getHistogram(SkipLatencyTracker.Phase.FOCUS).getCount());
+        assertTrue(tracker.getHistogram(SkipLatencyTracker.Phase.PREPARE_TO_READY).getCount() >= STORM_COUNT);
+    }
+
+    /**
+     * 推进模拟时钟，直到装载就绪的次数达到count
+     */
+    private void awaitReadyCount(long count) {
+        LatencyHistogram ready = tracker.getHistogram(SkipLatencyTracker.Phase.PREPARE_TO_READY);
+        for (long elapsed = 0; elapsed < SETTLE_TIMEOUT_MS; elapsed++) {
+            if (ready.getCount() >= count) {
+                return;
+            }
+            ShadowSystemClock.advanceBy(Duration.ofMillis(1));
+            shadowOf(Looper.getMainLooper()).idle();
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("等待就绪时被中断");
+            }
+        }
+        fail("切歌后" + SETTLE_TIMEOUT_MS + "毫秒内没有就绪");
+    }
+
+    /**
+     * 写入单声道16位PCM的正弦波WAV文件
+     */
+    private static File writeTone(File file, int frequency) throws IOException {
+        int sampleCount = SAMPLE_RATE * TRACK_SECONDS;
+        int dataLength = sampleCount * 2;
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeBytes("RIFF");
+            out.writeInt(Integer.reverseBytes(36 + dataLength));
+            out.writeBytes("WAVE");
+            out.writeBytes("fmt ");
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE * 2));
+            out.writeShort(Short.reverseBytes((short) 2));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeBytes("data");
+            out.writeInt(Integer.reverseBytes(dataLength));
+            for (int i = 0; i < sampleCount; i++) {
+                double sample = Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE);
+                out.writeShort(Short.reverseBytes((short) (sample * Short.MAX_VALUE / 4)));
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,56 @@
+package com.musicplayer.elegant.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TimeFormatter与原来的String.format实现的对比基准
+ * <p>
+ * 不属于单元测试，编译测试代码后运行：
+ * java -cp target/test-classes:target/classes:&lt;测试依赖&gt; org.openjdk.jmh.Main TimeFormatterBenchmark
+ * 可以加上-prof gc查看每次调用分配的内存。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeFormatterBenchmark {
+
+    // 开头、普通歌曲、整小时前后和超长时长
+    @Param({"0", "215000", "3599999", "86400000"})
+    public long timeMs;
+
+    private final char[] buffer = new char[20];
+
+    @Benchmark
+    public String stringFormat() {
+        long minutes = timeMs / 1000 / 60;
+        long seconds = timeMs / 1000 % 60;
+        return String.format("%d:%02d", minutes, seconds);
+    }
+
+    @Benchmark
+    public String formatToString() {
+        return TimeFormatter.format(timeMs);
+    }
+
+    @Benchmark
+    public void formatToBuffer(Blackhole blackhole) {
+        // 与TimeFormatter.setText相同的路径，不生成字符串
+        blackhole.consume(TimeFormatter.format(timeMs, buffer, 0));
+        blackhole.consume(buffer);
+    }
+}
@@ -0,0 +1,69 @@
+package com.musicplayer.elegant.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TimeFormatterTest {
+
+    @Test
+    public void formatsZero() {
+        assertEquals("0:00", TimeFormatter.format(0));
+        assertEquals("0:00", TimeFormatter.format(999));
+    }
+
+    @Test
+    public void formatsNegativeAsZero() {
+        assertEquals("0:00", TimeFormatter.format(-1));
+        assertEquals("0:00", TimeFormatter.format(-61_000));
+        assertEquals("0:00", TimeFormatter.format(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void carriesSecondsIntoMinutes() {
+        assertEquals("0:59", TimeFormatter.format(59_999));
+        assertEquals("1:00", TimeFormatter.format(60_000));
+        assertEquals("9:59", TimeFormatter.format(599_999));
+        assertEquals("10:00", TimeFormatter.format(600_000));
+    }
+
+    @Test
+    public void doesNotWrapAtOneHour() {
+        assertEquals("59:59", TimeFormatter.format(3_599_999));
+        assertEquals("60:00", TimeFormatter.format(3_600_000));
+        assertEquals("100:00", TimeFormatter.format(6_000_000));
+    }
+
+    @Test
+    public void formatsVeryLargeValues() {
+        assertEquals("153722867280912:55", TimeFormatter.format(Long.MAX_VALUE));
+        assertEquals(legacyFormat(Integer.MAX_VALUE * 1000L), TimeFormatter.format(Integer.MAX_VALUE * 1000L));
+    }
+
+    @Test
+    public void matchesStringFormat() {
+        for (long timeMs = 0; timeMs < 7_200_000; timeMs += 997) {
+            assertEquals(legacyFormat(timeMs), TimeFormatter.format(timeMs));
+        }
+    }
+
+    @Test
+    public void writesAtOffsetWithoutTouchingTheRest() {
+        char[] dest = new char[24];
+        Arrays.fill(dest, '#');
+        int length = TimeFormatter.format(3_600_000, dest, 2);
+        assertEquals(5, length);
+        assertEquals("##60:00#", new String(dest, 0, 8));
+    }
+
+    /**
+     * 改为TimeFormatter之前的实现
+     */
+    private static String legacyFormat(long timeMs) {
+        long minutes = timeMs / 1000 / 60;
+        long seconds = timeMs / 1000 % 60;
+        return String.format("%d:%02d", minutes, seconds);
+    }
+}